@@ -0,0 +1,81 @@
+package de.rochefort.mj3d.view;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Span filler based on the Vector API, handling as many pixels per iteration as the preferred vector
+ * shape holds floats (8 with AVX2, 16 with AVX-512). The remaining pixels as well as wireframe and per pixel fogged
+ * spans are left to the scalar implementation.
+ * Lives in the optional source root src-vector, since compiling it requires --add-modules jdk.incubator.vector.
+ * Compile it onto the class path of the library to enable it. {@link SpanFiller#getDefault()} loads it by reflection
+ * only if it is there and the module is available at runtime.
+ */
+final class VectorSpanFiller extends SpanFiller {
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+	private final float[] lanePositions;
+
+	VectorSpanFiller() {
+		lanePositions = new float[FLOATS.length()];
+		for(int lane=0; lane<lanePositions.length; lane++){
+			lanePositions[lane] = lane;
+		}
+	}
+
+	@Override
+	void fillSpan(int[] colors, float[] distances, int[] generations, int generation, int offset, int from, int length,
+			float distance, float distanceSlope, int color1, int color2, float colorRatio, float colorSlope, boolean wireframe, int borderColor, FogTable fog) {
+		if(wireframe || fog != null){
+			super.fillSpan(colors, distances, generations, generation, offset, from, length, distance, distanceSlope, color1, color2, colorRatio, colorSlope, wireframe, borderColor, fog);
+			return;
+		}
+		int r1 = (color1 >> 16) & 0xff;
+		int g1 = (color1 >> 8) & 0xff;
+		int b1 = color1 & 0xff;
+		float dr = (color2 >> 16 & 0xff) - r1;
+		float dg = (color2 >> 8 & 0xff) - g1;
+		float db = (color2 & 0xff) - b1;
+		FloatVector lanes = FloatVector.fromArray(FLOATS, lanePositions, 0);
+		int i = from;
+		int upperBound = from + FLOATS.loopBound(length - from);
+		for(; i < upperBound; i += FLOATS.length()){
+			int index = offset + i;
+			FloatVector positions = lanes.add((float)i);
+			FloatVector pixelDistances = positions.mul(distanceSlope).add(distance);
+			VectorMask<Integer> stale = IntVector.fromArray(INTS, generations, index).compare(VectorOperators.NE, generation);
+			VectorMask<Float> closer = FloatVector.fromArray(FLOATS, distances, index).compare(VectorOperators.GT, pixelDistances);
+			VectorMask<Float> write = closer.or(stale.cast(FLOATS));
+			if(!write.anyTrue()){
+				continue;
+			}
+			VectorMask<Integer> writeInts = write.cast(INTS);
+			pixelDistances.intoArray(distances, index, write);
+			IntVector.broadcast(INTS, generation).intoArray(generations, index, writeInts);
+			FloatVector ratios = positions.mul(colorSlope).add(colorRatio);
+			IntVector red = toInts(ratios.mul(dr).add(r1));
+			IntVector green = toInts(ratios.mul(dg).add(g1));
+			IntVector blue = toInts(ratios.mul(db).add(b1));
+			red.lanewise(VectorOperators.LSHL, 16).and(0xff0000)
+				.or(green.lanewise(VectorOperators.LSHL, 8).and(0xff00))
+				.or(blue.and(0xff))
+				.or(0xff000000)
+				.intoArray(colors, index, writeInts);
+		}
+		if(i < length){
+			super.fillSpan(colors, distances, generations, generation, offset, i, length, distance, distanceSlope, color1, color2, colorRatio, colorSlope, wireframe, borderColor, fog);
+		}
+	}
+
+	private static IntVector toInts(FloatVector values) {
+		return (IntVector)values.convertShape(VectorOperators.F2I, INTS, 0);
+	}
+
+	@Override
+	boolean isVectorized() {
+		return true;
+	}
+}
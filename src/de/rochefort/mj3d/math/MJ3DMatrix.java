@@ -36,6 +36,10 @@ public class MJ3DMatrix {
 		values[2][2] = ww - xx - yy + zz;
 	}
 	
+	public float getValue(int row, int col){
+		return values[row][col];
+	}
+	
 	public MJ3DVector multiply(MJ3DVector vector){
 		float [][] vect = new float [3][1];
 		vect[0][0] = vector.getX();
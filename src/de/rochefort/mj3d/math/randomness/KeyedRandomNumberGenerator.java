@@ -0,0 +1,135 @@
+package de.rochefort.mj3d.math.randomness;
+
+/**
+ * Stateless counter based random number generator: every value is a hash of the seed and a key, e.g. the
+ * coordinates of a grid point, computed with the SplitMix64 finalizer. Unlike {@link RandomNumberGenerator}, values
+ * do not depend on the order they are drawn in, so any subset of them can be regenerated on its own,
+ * and any number of threads can share an instance without synchronization.
+ */
+public final class KeyedRandomNumberGenerator {
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	private static final float FLOAT_UNIT = 0x1.0p-24f;
+	private final long seed;
+
+	public KeyedRandomNumberGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return a random long for the key, all 64 bits of which are well distributed
+	 */
+	public long randomLong(long key){
+		return absorb(seed, key);
+	}
+
+	/**
+	 * @return a random long for the key made up of the three values
+	 */
+	public long randomLong(int step, int row, int col){
+		return absorb(absorb(absorb(seed, step), row), col);
+	}
+
+	/**
+	 * @return a random float between 0 (inclusive) and 1 (exclusive) for the key
+	 */
+	public float randomFloat(long key){
+		return toUnitFloat(randomLong(key));
+	}
+
+	/**
+	 * @return a random float between 0 (inclusive) and 1 (exclusive) for the key made up of the three values
+	 */
+	public float randomFloat(int step, int row, int col){
+		return toUnitFloat(randomLong(step, row, col));
+	}
+
+	/**
+	 * Creates a random float between min and max for the key, like {@link RandomNumberGenerator#randomFloatRepeatable(float, float)}
+	 */
+	public float randomFloatRepeatable(long key, float min, float max){
+		checkRange(min, max);
+		return min + randomFloat(key) * (max-min);
+	}
+
+	/**
+	 * Creates a random float between min and max for the key made up of the three values,
+	 * like {@link RandomNumberGenerator#randomFloatRepeatable(float, float)}
+	 */
+	public float randomFloatRepeatable(int step, int row, int col, float min, float max){
+		checkRange(min, max);
+		return min + randomFloat(step, row, col) * (max-min);
+	}
+
+	/**
+	 * Fills values[offset] to values[offset+count-1] with the random floats between min and max for the keys
+	 * firstKey to firstKey+count-1
+	 * @param values
+	 * @param offset
+	 * @param count
+	 * @param firstKey
+	 * @param min
+	 * @param max
+	 */
+	public void fill(float[] values, int offset, int count, long firstKey, float min, float max){
+		checkRange(min, max);
+		float range = max-min;
+		for(int i=0; i<count; i++){
+			values[offset+i] = min + toUnitFloat(absorb(seed, firstKey+i)) * range;
+		}
+	}
+
+	/**
+	 * Fills values[offset] to values[offset+count-1] with the random floats between min and max for the columns
+	 * firstCol to firstCol+count-1 of a row, each equal to {@link #randomFloatRepeatable(int, int, int, float, float)}.
+	 * The part of the hash common to the row is computed once.
+	 * @param values
+	 * @param offset
+	 * @param count
+	 * @param step
+	 * @param row
+	 * @param firstCol
+	 * @param min
+	 * @param max
+	 */
+	public void fill(float[] values, int offset, int count, int step, int row, int firstCol, float min, float max){
+		checkRange(min, max);
+		float range = max-min;
+		long rowHash = absorb(absorb(seed, step), row);
+		for(int i=0; i<count; i++){
+			values[offset+i] = min + toUnitFloat(absorb(rowHash, firstCol+i)) * range;
+		}
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	private static void checkRange(float min, float max) {
+		if(min>max){
+			throw new IllegalArgumentException("Error on invokation of randomFloatRepeatable: Min value "+min +" is larger than max value "+max+"!");
+		}
+	}
+
+	/**
+	 * Mixes one more value into a hash. The increment keeps a key of 0 from leaving the hash unchanged.
+	 */
+	private static long absorb(long hash, long value) {
+		return mix(hash + GOLDEN_GAMMA * (value + 1));
+	}
+
+	/**
+	 * The finalizer of SplitMix64, mapping every long to a well distributed long
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * The upper 24 bits give every float in [0, 1) with a spacing of 2^-24
+	 */
+	private static float toUnitFloat(long hash) {
+		return (hash >>> 40) * FLOAT_UNIT;
+	}
+}
@@ -21,6 +21,21 @@ public class RandomNumberGenerator {
 		return result;
 	}
 
+	/**
+	 * Creates a random float between min and max that only depends on the seed and the given coordinates, not on
+	 * previous calls, so that values can be drawn in any order and from any number of threads.
+	 * To draw many values, create a {@link KeyedRandomNumberGenerator} once instead.
+	 * @param seed
+	 * @param step e.g. the iteration the value is drawn in
+	 * @param row
+	 * @param col
+	 * @param min
+	 * @param max
+	 */
+	public static float randomFloatKeyed(long seed, int step, int row, int col, float min, float max){
+		return new KeyedRandomNumberGenerator(seed).randomFloatRepeatable(step, row, col, min, max);
+	}
+
 	public static void main(String[] args) {
 		RandomNumberGenerator gen = new RandomNumberGenerator(1);
 		for(int i=0; i<10; i++){
@@ -0,0 +1,101 @@
+package de.rochefort.mj3d.objects;
+
+import de.rochefort.mj3d.math.MJ3DVector;
+
+/**
+ * Triangle mesh held in packed arrays instead of point and triad objects.
+ * {@link de.rochefort.mj3d.objects.maps.MJ3DMapBuilder} copies it straight into the arrays of the map,
+ * so no object is created per point or triad, see {@link de.rochefort.mj3d.objects.maps.MJ3DMap#getPointsArray()}.
+ * The vertices of a grid mesh form a height field of gridSize rows and columns, stored row by row,
+ * which lets the map render it with level of detail like a diamond square terrain.
+ */
+public class MJ3DMesh implements MJ3DObject {
+	private final float[] positions;
+	private final int[] indices;
+	private final int[] triadColors;
+	private final int gridSize;
+
+	/**
+	 * @param positions the x, y and z coordinates of the vertices, packed at offsets 3*i, 3*i+1 and 3*i+2 for vertex i
+	 * @param indices the indices of the three vertices of each triad, packed at offsets 3*t, 3*t+1 and 3*t+2 for triad t
+	 * @param triadColors the RGB color of each triad
+	 */
+	public MJ3DMesh(float[] positions, int[] indices, int[] triadColors) {
+		this(positions, indices, triadColors, 0);
+	}
+
+	/**
+	 * @param positions the x, y and z coordinates of the vertices, packed at offsets 3*i, 3*i+1 and 3*i+2 for vertex i
+	 * @param indices the indices of the three vertices of each triad, packed at offsets 3*t, 3*t+1 and 3*t+2 for triad t
+	 * @param triadColors the RGB color of each triad
+	 * @param gridSize the number of rows and columns the vertices are arranged in, row by row, or 0 if they are not a grid
+	 */
+	public MJ3DMesh(float[] positions, int[] indices, int[] triadColors, int gridSize) {
+		if(positions.length % 3 != 0){
+			throw new IllegalArgumentException("Positions must hold three coordinates per vertex but have length "+positions.length);
+		}
+		if(indices.length != 3 * triadColors.length){
+			throw new IllegalArgumentException("Indices must hold three vertices for each of the "+triadColors.length+" triad colors but have length "+indices.length);
+		}
+		if(gridSize < 0 || gridSize > 0 && gridSize * gridSize != positions.length / 3){
+			throw new IllegalArgumentException("Grid size "+gridSize+" does not match the vertex count "+positions.length / 3);
+		}
+		this.positions = positions;
+		this.indices = indices;
+		this.triadColors = triadColors;
+		this.gridSize = gridSize;
+	}
+
+	public void translate(MJ3DVector translationVector){
+		float x = translationVector.getX();
+		float y = translationVector.getY();
+		float z = translationVector.getZ();
+		for(int i=0; i<positions.length; i+=3){
+			positions[i] += x;
+			positions[i+1] += y;
+			positions[i+2] += z;
+		}
+	}
+
+	public int getVertexCount() {
+		return positions.length / 3;
+	}
+
+	public int getTriadCount() {
+		return triadColors.length;
+	}
+
+	public float[] getPositions() {
+		return positions;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public int[] getTriadColors() {
+		return triadColors;
+	}
+
+	/**
+	 * @return the number of rows and columns of the vertex grid, 0 if the vertices are not a grid
+	 */
+	public int getGridSize() {
+		return gridSize;
+	}
+
+	@Override
+	public float getX() {
+		return positions.length == 0 ? Float.MIN_VALUE : positions[0];
+	}
+
+	@Override
+	public float getY() {
+		return positions.length == 0 ? Float.MIN_VALUE : positions[1];
+	}
+
+	@Override
+	public float getZ() {
+		return positions.length == 0 ? Float.MIN_VALUE : positions[2];
+	}
+}
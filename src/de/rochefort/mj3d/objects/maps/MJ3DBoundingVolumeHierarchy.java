@@ -0,0 +1,207 @@
+package de.rochefort.mj3d.objects.maps;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over the triads of a map.
+ * Every node is bounded by a sphere and covers a contiguous range of triad positions, see {@link #getOrderedTriad(int)}.
+ * Inner nodes have exactly two children, stored next to each other starting at {@link #getFirstChild(int)}.
+ * Leaves hold at most {@link #MAX_LEAF_TRIAD_COUNT} triads. The root node has index 0.
+ */
+public class MJ3DBoundingVolumeHierarchy {
+	public static final int MAX_LEAF_TRIAD_COUNT = 64;
+	private final int[] triadOrder;
+	private float[] centersX;
+	private float[] centersY;
+	private float[] centersZ;
+	private float[] radii;
+	private int[] firstChildren;
+	private int[] firstTriads;
+	private int[] triadCounts;
+	private int nodeCount = 0;
+
+	MJ3DBoundingVolumeHierarchy(float[] pointsX, float[] pointsY, float[] pointsZ, int[][] triadPoints) {
+		int triadCount = triadPoints.length;
+		triadOrder = new int[triadCount];
+		float[][] centroids = new float[3][triadCount];
+		for(int triad=0; triad<triadCount; triad++){
+			triadOrder[triad] = triad;
+			int[] pts = triadPoints[triad];
+			centroids[0][triad] = (pointsX[pts[0]] + pointsX[pts[1]] + pointsX[pts[2]]) / 3f;
+			centroids[1][triad] = (pointsY[pts[0]] + pointsY[pts[1]] + pointsY[pts[2]]) / 3f;
+			centroids[2][triad] = (pointsZ[pts[0]] + pointsZ[pts[1]] + pointsZ[pts[2]]) / 3f;
+		}
+		int capacity = 2 * (triadCount / MAX_LEAF_TRIAD_COUNT + 1);
+		centersX = new float[capacity];
+		centersY = new float[capacity];
+		centersZ = new float[capacity];
+		radii = new float[capacity];
+		firstChildren = new int[capacity];
+		firstTriads = new int[capacity];
+		triadCounts = new int[capacity];
+		if(triadCount > 0){
+			buildNode(allocateNodes(1), 0, triadCount, pointsX, pointsY, pointsZ, triadPoints, centroids);
+		}
+	}
+
+	private int allocateNodes(int count){
+		int first = nodeCount;
+		nodeCount += count;
+		if(nodeCount > radii.length){
+			int capacity = Math.max(nodeCount, 2 * radii.length);
+			centersX = Arrays.copyOf(centersX, capacity);
+			centersY = Arrays.copyOf(centersY, capacity);
+			centersZ = Arrays.copyOf(centersZ, capacity);
+			radii = Arrays.copyOf(radii, capacity);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			firstTriads = Arrays.copyOf(firstTriads, capacity);
+			triadCounts = Arrays.copyOf(triadCounts, capacity);
+		}
+		return first;
+	}
+
+	private void buildNode(int node, int start, int end, float[] pointsX, float[] pointsY, float[] pointsZ, int[][] triadPoints, float[][] centroids){
+		computeBoundingSphere(node, start, end, pointsX, pointsY, pointsZ, triadPoints);
+		firstTriads[node] = start;
+		triadCounts[node] = end - start;
+		if(end - start <= MAX_LEAF_TRIAD_COUNT){
+			firstChildren[node] = -1;
+			return;
+		}
+		// split at the median centroid along the axis in which the centroids are spread widest
+		int axis = 0;
+		float maxExtent = -1;
+		for(int a=0; a<3; a++){
+			float min = Float.MAX_VALUE;
+			float max = -Float.MAX_VALUE;
+			for(int i=start; i<end; i++){
+				float value = centroids[a][triadOrder[i]];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if(max - min > maxExtent){
+				maxExtent = max - min;
+				axis = a;
+			}
+		}
+		int mid = (start + end) >>> 1;
+		selectNth(start, end - 1, mid, centroids[axis]);
+		int firstChild = allocateNodes(2);
+		firstChildren[node] = firstChild;
+		buildNode(firstChild, start, mid, pointsX, pointsY, pointsZ, triadPoints, centroids);
+		buildNode(firstChild + 1, mid, end, pointsX, pointsY, pointsZ, triadPoints, centroids);
+	}
+
+	private void computeBoundingSphere(int node, int start, int end, float[] pointsX, float[] pointsY, float[] pointsZ, int[][] triadPoints){
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		float maxZ = -Float.MAX_VALUE;
+		for(int i=start; i<end; i++){
+			for(int point : triadPoints[triadOrder[i]]){
+				minX = Math.min(minX, pointsX[point]);
+				minY = Math.min(minY, pointsY[point]);
+				minZ = Math.min(minZ, pointsZ[point]);
+				maxX = Math.max(maxX, pointsX[point]);
+				maxY = Math.max(maxY, pointsY[point]);
+				maxZ = Math.max(maxZ, pointsZ[point]);
+			}
+		}
+		float cx = 0.5f * (minX + maxX);
+		float cy = 0.5f * (minY + maxY);
+		float cz = 0.5f * (minZ + maxZ);
+		float maxDistanceSquared = 0;
+		for(int i=start; i<end; i++){
+			for(int point : triadPoints[triadOrder[i]]){
+				float dx = pointsX[point] - cx;
+				float dy = pointsY[point] - cy;
+				float dz = pointsZ[point] - cz;
+				maxDistanceSquared = Math.max(maxDistanceSquared, dx*dx + dy*dy + dz*dz);
+			}
+		}
+		centersX[node] = cx;
+		centersY[node] = cy;
+		centersZ[node] = cz;
+		// widen slightly so that float rounding can never put a vertex outside of its sphere
+		radii[node] = (float)Math.sqrt(maxDistanceSquared) * 1.0001f + 1e-4f;
+	}
+
+	/**
+	 * Partially sorts the given range of the triad order such that the triad at position n has the
+	 * n-th smallest key, all triads before it have smaller or equal keys and all after it larger or equal ones.
+	 */
+	private void selectNth(int left, int right, int n, float[] keys){
+		while(right > left){
+			float pivot = keys[triadOrder[(left + right) >>> 1]];
+			int i = left;
+			int j = right;
+			while(i <= j){
+				while(keys[triadOrder[i]] < pivot)
+					i++;
+				while(keys[triadOrder[j]] > pivot)
+					j--;
+				if(i <= j){
+					int tmp = triadOrder[i];
+					triadOrder[i] = triadOrder[j];
+					triadOrder[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if(n <= j){
+				right = j;
+			} else if(n >= i){
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @param position the position in the order in which the nodes cover the triads, from {@link #getFirstTriad(int)} 
+	 * up to but excluding {@link #getFirstTriad(int)} plus {@link #getTriadCount(int)} for a node
+	 * @return the index of the triad at that position
+	 */
+	public int getOrderedTriad(int position) {
+		return triadOrder[position];
+	}
+
+	public boolean isLeaf(int node) {
+		return firstChildren[node] < 0;
+	}
+
+	public int getFirstChild(int node) {
+		return firstChildren[node];
+	}
+
+	public int getFirstTriad(int node) {
+		return firstTriads[node];
+	}
+
+	public int getTriadCount(int node) {
+		return triadCounts[node];
+	}
+
+	public float getCenterX(int node) {
+		return centersX[node];
+	}
+
+	public float getCenterY(int node) {
+		return centersY[node];
+	}
+
+	public float getCenterZ(int node) {
+		return centersZ[node];
+	}
+
+	public float getRadius(int node) {
+		return radii[node];
+	}
+}
@@ -14,8 +14,58 @@ public interface MJ3DMap {
 	public float getMaxZ();
 	public boolean isFoggy();
 	public boolean isWireframe();
+	/**
+	 * @return true if triads facing away from the viewer should not be rendered
+	 */
+	public boolean isBackfaceCulling();
 	public int getTriadCount();
+	/**
+	 * @return all points of the map. Points of {@link de.rochefort.mj3d.objects.MJ3DMesh meshes} are created on the first call 
+	 * and are not linked to any triads, so prefer the coordinate arrays for anything but editing
+	 */
 	public MJ3DPoint3D[] getPointsArray();
+	/**
+	 * @return the x coordinates of all points, indexed like {@link #getPointsArray()}
+	 */
+	public float[] getPointsXArray();
+	/**
+	 * @return the y coordinates of all points, indexed like {@link #getPointsArray()}
+	 */
+	public float[] getPointsYArray();
+	/**
+	 * @return the z coordinates of all points, indexed like {@link #getPointsArray()}
+	 */
+	public float[] getPointsZArray();
 	public int[][] getTriadPointsArray();
+	/**
+	 * @return a bounding volume hierarchy over all triads of {@link #getTriadPointsArray()} 
+	 * except for those of terrains rendered with level of detail
+	 */
+	public MJ3DBoundingVolumeHierarchy getBoundingVolumeHierarchy();
+	/**
+	 * @return the geomipmaps of all terrains rendered with level of detail, empty if there are none
+	 */
+	public MJ3DTerrainLevelOfDetail[] getTerrainLevelsOfDetail();
+	/**
+	 * @return a spatial index over all triads of {@link #getTriadPointsArray()} for height, location and ray queries, 
+	 * built on first use
+	 */
+	public MJ3DSpatialIndex getSpatialIndex();
 	public int[] getPointColorsArray();
+	/**
+	 * @return for each point p, the offset of its first triad in {@link #getPointTriadIndices()}, 
+	 * followed by the total count, so the triads of p are at offsets getPointTriadOffsets()[p] to getPointTriadOffsets()[p+1]-1. 
+	 * Built on first use
+	 */
+	public int[] getPointTriadOffsets();
+	/**
+	 * @return the indices in {@link #getTriadPointsArray()} of the triads using each point, grouped by point, 
+	 * see {@link #getPointTriadOffsets()}
+	 */
+	public int[] getPointTriadIndices();
+	/**
+	 * @return the (not normalized) normals (p1-p0)x(p2-p0) of all triads, 
+	 * packed as x, y and z at offsets 3*i, 3*i+1 and 3*i+2 for triad i
+	 */
+	public float[] getTriadNormalsArray();
 }
@@ -14,6 +14,9 @@ public class MJ3DMapBuilder {
 	private final List<MJ3DObject> mj3dObjects = new LinkedList<MJ3DObject>();
 	private boolean foggy = true;
 	private boolean wireframe = false;
+	private boolean backfaceCulling = false;
+	private boolean terrainLevelOfDetail = false;
+	private boolean terrainBorderStitching = false;
 	private Color backgroundColor = Color.BLACK;
 	
 	private MJ3DMapBuilder(){
@@ -34,6 +37,41 @@ public class MJ3DMapBuilder {
 		return this;
 	}
 	
+	/**
+	 * Enables culling of triads facing away from the viewer. Front faces are those whose points are ordered 
+	 * such that the normal (p1-p0)x(p2-p0) points towards the viewer. Leave disabled for two-sided geometry.
+	 * @param backfaceCulling
+	 * @return this builder
+	 */
+	public MJ3DMapBuilder setBackfaceCulling(boolean backfaceCulling){
+		this.backfaceCulling = backfaceCulling;
+		return this;
+	}
+	
+	/**
+	 * Enables geomipmapping for all diamond square terrains of the map. Their triads are then not rendered 
+	 * one by one, but chunk by chunk at a resolution depending on the distance to the camera, 
+	 * see {@link MJ3DTerrainLevelOfDetail}.
+	 * @param terrainLevelOfDetail
+	 * @return this builder
+	 */
+	public MJ3DMapBuilder setTerrainLevelOfDetail(boolean terrainLevelOfDetail){
+		this.terrainLevelOfDetail = terrainLevelOfDetail;
+		return this;
+	}
+	
+	/**
+	 * Selects the level of detail along the outer borders of terrains from the border vertices alone, so terrains 
+	 * in separate maps that share border vertices meet without cracks, see {@link MJ3DTerrainLevelOfDetail}.
+	 * Only has an effect with {@link #setTerrainLevelOfDetail(boolean)} enabled.
+	 * @param terrainBorderStitching
+	 * @return this builder
+	 */
+	public MJ3DMapBuilder setTerrainBorderStitching(boolean terrainBorderStitching){
+		this.terrainBorderStitching = terrainBorderStitching;
+		return this;
+	}
+	
 	public MJ3DMapBuilder setBackgroundColor(Color backgroundColor){
 		this.backgroundColor = backgroundColor;
 		return this;
@@ -53,6 +91,6 @@ public class MJ3DMapBuilder {
 		if(!finalized.compareAndSet(false, true)){
 			throw new IllegalStateException("MJ3DMapBuilder: build() Method may only be called once!");
 		}
-		return new MJ3DMapImpl(mj3dObjects, backgroundColor.getRGB(), foggy, wireframe);
+		return new MJ3DMapImpl(mj3dObjects, backgroundColor.getRGB(), foggy, wireframe, backfaceCulling, terrainLevelOfDetail, terrainBorderStitching);
 	}
 }
@@ -8,10 +8,12 @@ import java.util.LinkedList;
 import java.util.List;
 
 import de.rochefort.mj3d.math.MJ3DVector;
+import de.rochefort.mj3d.objects.MJ3DMesh;
 import de.rochefort.mj3d.objects.MJ3DObject;
 import de.rochefort.mj3d.objects.MJ3DObjectCompound;
 import de.rochefort.mj3d.objects.primitives.MJ3DPoint3D;
 import de.rochefort.mj3d.objects.primitives.MJ3DTriad;
+import de.rochefort.mj3d.objects.terrains.MJ3DDiamondSquareTerrain;
 import de.rochefort.mj3d.view.MJ3DViewingPosition;
 
 class MJ3DMapImpl implements MJ3DMap {
@@ -24,20 +26,53 @@ class MJ3DMapImpl implements MJ3DMap {
 	private final float maxZ;
 	private final boolean foggy;
 	private final boolean wireframe;
+	private final boolean backfaceCulling;
+	// points of meshes are only created on request
 	private final MJ3DPoint3D[] pointsArray;
+	private boolean pointsArrayComplete;
+	private final float[] pointsXArray;
+	private final float[] pointsYArray;
+	private final float[] pointsZArray;
 	private final int[][] triadPointsArray;
 	private final int[] triadColorsArray;
 	private final int[] pointColorsArray;
+	private final float[] triadNormalsArray;
+	private final MJ3DBoundingVolumeHierarchy boundingVolumeHierarchy;
+	private final MJ3DTerrainLevelOfDetail[] terrainLevelsOfDetail;
+	private volatile MJ3DSpatialIndex spatialIndex;
+	// the triads of each point in compressed sparse rows, built on first use
+	private int[] pointTriadOffsets;
+	private int[] pointTriadIndices;
 	
-	MJ3DMapImpl(Collection<MJ3DObject> mj3dObjects, int backgroundColor, boolean foggy, boolean wireframe){
+	MJ3DMapImpl(Collection<MJ3DObject> mj3dObjects, int backgroundColor, boolean foggy, boolean wireframe, boolean backfaceCulling, boolean terrainLevelOfDetail, boolean terrainBorderStitching){
 		this.bg = backgroundColor;
 		this.foggy = foggy;
 		this.wireframe = wireframe;
+		this.backfaceCulling = backfaceCulling;
 		List<MJ3DPoint3D> pointsList = new ArrayList<MJ3DPoint3D>();
 		List<MJ3DTriad> triadList = new ArrayList<MJ3DTriad>();
 		LinkedList<MJ3DObjectCompound> objectsCompounds = new LinkedList<MJ3DObjectCompound>();
+		// triads of terrains with level of detail are appended after all others and left out of the bounding volume hierarchy
+		List<MJ3DDiamondSquareTerrain> levelOfDetailTerrains = new ArrayList<MJ3DDiamondSquareTerrain>();
+		List<MJ3DTriad> levelOfDetailTriads = new ArrayList<MJ3DTriad>();
+		// meshes are copied into the arrays directly, their points follow the points of all other objects
+		List<MJ3DMesh> meshes = new ArrayList<MJ3DMesh>();
+		List<MJ3DMesh> levelOfDetailMeshes = new ArrayList<MJ3DMesh>();
 		for(MJ3DObject obj : mj3dObjects){
-			if(obj instanceof MJ3DObjectCompound){
+			if(obj instanceof MJ3DMesh){
+				MJ3DMesh mesh = (MJ3DMesh)obj;
+				if(terrainLevelOfDetail && mesh.getGridSize() > 0){
+					levelOfDetailMeshes.add(mesh);
+				} else {
+					meshes.add(mesh);
+				}
+			} else if(terrainLevelOfDetail && obj instanceof MJ3DDiamondSquareTerrain){
+				MJ3DDiamondSquareTerrain terrain = (MJ3DDiamondSquareTerrain)obj;
+				objectsCompounds.add(terrain);
+				levelOfDetailTerrains.add(terrain);
+				levelOfDetailTriads.addAll(terrain.getTriads());
+				pointsList.addAll(terrain.getPoints());
+			} else if(obj instanceof MJ3DObjectCompound){
 				MJ3DObjectCompound comp = (MJ3DObjectCompound)obj;
 				objectsCompounds.add(comp);
 				triadList.addAll(comp.getTriads());
@@ -48,18 +83,48 @@ class MJ3DMapImpl implements MJ3DMap {
 				pointsList.addAll(Arrays.asList(triad.getPoints()));
 			}
 		}
-		
+		int pointCount = pointsList.size();
+		int triadCount = triadList.size() + levelOfDetailTriads.size();
+		for(MJ3DMesh mesh : meshes){
+			pointCount += mesh.getVertexCount();
+			triadCount += mesh.getTriadCount();
+		}
+		for(MJ3DMesh mesh : levelOfDetailMeshes){
+			pointCount += mesh.getVertexCount();
+			triadCount += mesh.getTriadCount();
+		}
 
-		pointsArray = new MJ3DPoint3D[pointsList.size()];
-		pointColorsArray = new int[pointsList.size()];
-		triadPointsArray = new int[triadList.size()][3];  // To store the indices the respective vertices in the pointsArray
-		triadColorsArray = new int[triadList.size()];
-		int[] pointsRedArray = new int[pointsList.size()];
-		int[] pointsGreenArray = new int[pointsList.size()];
-		int[] pointsBlueArray = new int[pointsList.size()];
-		int[] pointsTriadCountArray = new int[pointsList.size()];
+		pointsArray = new MJ3DPoint3D[pointCount];
+		pointsArrayComplete = meshes.isEmpty() && levelOfDetailMeshes.isEmpty();
+		pointsXArray = new float[pointCount];
+		pointsYArray = new float[pointCount];
+		pointsZArray = new float[pointCount];
+		pointColorsArray = new int[pointCount];
+		triadPointsArray = new int[triadCount][];  // To store the indices the respective vertices in the pointsArray
+		triadColorsArray = new int[triadCount];
 		// Fill the pointsarray
-		
+		for(int i=0; i<pointsList.size(); i++){
+			pointsList.get(i).setIndex(i);
+			pointsArray[i]=pointsList.get(i);
+			pointsXArray[i]=pointsArray[i].getX();
+			pointsYArray[i]=pointsArray[i].getY();
+			pointsZArray[i]=pointsArray[i].getZ();
+		}
+		// triads in the order objects, meshes, terrains with level of detail, meshes with level of detail
+		int pointOffset = pointsList.size();
+		int triadOffset = addTriads(triadList, 0);
+		for(MJ3DMesh mesh : meshes){
+			triadOffset = addMesh(mesh, pointOffset, triadOffset);
+			pointOffset += mesh.getVertexCount();
+		}
+		int hierarchyTriadCount = triadOffset;
+		triadOffset = addTriads(levelOfDetailTriads, triadOffset);
+		int[] levelOfDetailMeshPointOffsets = new int[levelOfDetailMeshes.size()];
+		for(int i=0; i<levelOfDetailMeshes.size(); i++){
+			levelOfDetailMeshPointOffsets[i] = pointOffset;
+			triadOffset = addMesh(levelOfDetailMeshes.get(i), pointOffset, triadOffset);
+			pointOffset += levelOfDetailMeshes.get(i).getVertexCount();
+		}
 		
 		float maxTmpX = Float.MIN_VALUE;
 		float maxTmpY = Float.MIN_VALUE;
@@ -67,15 +132,13 @@ class MJ3DMapImpl implements MJ3DMap {
 		float minTmpX = Float.MAX_VALUE;
 		float minTmpY = Float.MAX_VALUE;
 		float minTmpZ = Float.MAX_VALUE;
-		for(int i=0; i<pointsArray.length; i++){
-			pointsList.get(i).setIndex(i);
-			pointsArray[i]=pointsList.get(i);
-			maxTmpX = Math.max(maxTmpX, pointsArray[i].getX());
-			maxTmpY = Math.max(maxTmpY, pointsArray[i].getY());
-			maxTmpZ = Math.max(maxTmpZ, pointsArray[i].getZ());
-			minTmpX = Math.min(minTmpX, pointsArray[i].getX());
-			minTmpY = Math.min(minTmpY, pointsArray[i].getY());
-			minTmpZ = Math.min(minTmpZ, pointsArray[i].getZ());
+		for(int i=0; i<pointCount; i++){
+			maxTmpX = Math.max(maxTmpX, pointsXArray[i]);
+			maxTmpY = Math.max(maxTmpY, pointsYArray[i]);
+			maxTmpZ = Math.max(maxTmpZ, pointsZArray[i]);
+			minTmpX = Math.min(minTmpX, pointsXArray[i]);
+			minTmpY = Math.min(minTmpY, pointsYArray[i]);
+			minTmpZ = Math.min(minTmpZ, pointsZArray[i]);
 		}
 		
 		maxX = maxTmpX; 
@@ -88,22 +151,17 @@ class MJ3DMapImpl implements MJ3DMap {
 		// iterate over all triads and add their color to all their respective vertices
 		// as a result each point receives color from its three adjacent triads.
 		// Finally, increment the triad count for each point to be able to average in the next loop.
+		int[] pointsRedArray = new int[pointCount];
+		int[] pointsGreenArray = new int[pointCount];
+		int[] pointsBlueArray = new int[pointCount];
+		int[] pointsTriadCountArray = new int[pointCount];
 		for(int triadIndex=0; triadIndex<triadPointsArray.length; triadIndex++){
-			triadColorsArray[triadIndex]=triadList.get(triadIndex).getColor().getRGB();
+			int color = triadColorsArray[triadIndex];
 			for(int vertice=0; vertice<3; vertice++){
-//				int pointIndex = triadList.get(triadIndex).getPoints()[vertice].getIndex();
-//				triadPointsArray[triadIndex][vertice]=pointIndex;
-//				pointsRedArray[pointIndex]+=triadList.get(triadIndex).getColor().getRed();
-//				pointsGreenArray[pointIndex]+=triadList.get(triadIndex).getColor().getGreen();
-//				pointsBlueArray[pointIndex]+=triadList.get(triadIndex).getColor().getBlue();
-//				pointsTriadCountArray[pointIndex]++;
-
-				MJ3DPoint3D currentPoint = triadList.get(triadIndex).getPoints()[vertice];
-				int pointIndex = currentPoint.getIndex();
-				triadPointsArray[triadIndex][vertice]=pointIndex;
-				pointsRedArray[pointIndex]+=triadList.get(triadIndex).getColor().getRed();
-				pointsGreenArray[pointIndex]+=triadList.get(triadIndex).getColor().getGreen();
-				pointsBlueArray[pointIndex]+=triadList.get(triadIndex).getColor().getBlue();
+				int pointIndex = triadPointsArray[triadIndex][vertice];
+				pointsRedArray[pointIndex]+=(color >> 16) & 0xff;
+				pointsGreenArray[pointIndex]+=(color >> 8) & 0xff;
+				pointsBlueArray[pointIndex]+=color & 0xff;
 				pointsTriadCountArray[pointIndex]++;
 			}
 		}
@@ -115,14 +173,67 @@ class MJ3DMapImpl implements MJ3DMap {
 			int blue = (int)(pointsBlueArray[i]/(float)pointsTriadCountArray[i]);
 			pointColorsArray[i]=(new Color(red, green, blue)).getRGB();
 		}
-		for(int i=0; i<triadList.size(); i++){
-			
-			triadColorsArray[i]=triadList.get(i).getColor().getRGB();
-			for(int p=0; p<3; p++)
-				triadPointsArray[i][p]=triadList.get(i).getPoints()[p].getIndex();
+		triadNormalsArray = new float[3*triadPointsArray.length];
+		for(int i=0; i<triadPointsArray.length; i++){
+			int[] pts = triadPointsArray[i];
+			float ax = pointsXArray[pts[1]] - pointsXArray[pts[0]];
+			float ay = pointsYArray[pts[1]] - pointsYArray[pts[0]];
+			float az = pointsZArray[pts[1]] - pointsZArray[pts[0]];
+			float bx = pointsXArray[pts[2]] - pointsXArray[pts[0]];
+			float by = pointsYArray[pts[2]] - pointsYArray[pts[0]];
+			float bz = pointsZArray[pts[2]] - pointsZArray[pts[0]];
+			triadNormalsArray[3*i]   = ay * bz - az * by;
+			triadNormalsArray[3*i+1] = az * bx - ax * bz;
+			triadNormalsArray[3*i+2] = ax * by - ay * bx;
 		}
-		
-		
+		boundingVolumeHierarchy = new MJ3DBoundingVolumeHierarchy(pointsXArray, pointsYArray, pointsZArray, Arrays.copyOf(triadPointsArray, hierarchyTriadCount));
+		terrainLevelsOfDetail = new MJ3DTerrainLevelOfDetail[levelOfDetailTerrains.size() + levelOfDetailMeshes.size()];
+		for(int i=0; i<levelOfDetailTerrains.size(); i++){
+			terrainLevelsOfDetail[i] = new MJ3DTerrainLevelOfDetail(levelOfDetailTerrains.get(i).getPointGrid(), pointsXArray, pointsYArray, pointsZArray, terrainBorderStitching);
+		}
+		for(int i=0; i<levelOfDetailMeshes.size(); i++){
+			int gridSize = levelOfDetailMeshes.get(i).getGridSize();
+			int[] gridPoints = new int[gridSize * gridSize];
+			for(int p=0; p<gridPoints.length; p++){
+				gridPoints[p] = levelOfDetailMeshPointOffsets[i] + p;
+			}
+			terrainLevelsOfDetail[levelOfDetailTerrains.size() + i] = new MJ3DTerrainLevelOfDetail(gridPoints, gridSize, pointsXArray, pointsYArray, pointsZArray, terrainBorderStitching);
+		}
+	}
+
+	/**
+	 * Stores the point indices and colors of triad objects, whose points must already have their indices
+	 * @return the index after the last triad stored
+	 */
+	private int addTriads(List<MJ3DTriad> triads, int triadOffset) {
+		for(MJ3DTriad triad : triads){
+			MJ3DPoint3D[] points = triad.getPoints();
+			triadPointsArray[triadOffset] = new int[]{points[0].getIndex(), points[1].getIndex(), points[2].getIndex()};
+			triadColorsArray[triadOffset] = triad.getColor().getRGB();
+			triadOffset++;
+		}
+		return triadOffset;
+	}
+
+	/**
+	 * Copies the vertices of a mesh to the point arrays, starting at pointOffset, and its triads to the triad arrays
+	 * @return the index after the last triad stored
+	 */
+	private int addMesh(MJ3DMesh mesh, int pointOffset, int triadOffset) {
+		float[] positions = mesh.getPositions();
+		for(int i=0; i<mesh.getVertexCount(); i++){
+			pointsXArray[pointOffset+i] = positions[3*i];
+			pointsYArray[pointOffset+i] = positions[3*i+1];
+			pointsZArray[pointOffset+i] = positions[3*i+2];
+		}
+		int[] indices = mesh.getIndices();
+		int[] colors = mesh.getTriadColors();
+		for(int t=0; t<mesh.getTriadCount(); t++){
+			triadPointsArray[triadOffset] = new int[]{pointOffset+indices[3*t], pointOffset+indices[3*t+1], pointOffset+indices[3*t+2]};
+			triadColorsArray[triadOffset] = colors[t];
+			triadOffset++;
+		}
+		return triadOffset;
 	}
 
 	@Override
@@ -170,9 +281,14 @@ class MJ3DMapImpl implements MJ3DMap {
 		return wireframe;
 	}
 
+	@Override
+	public boolean isBackfaceCulling() {
+		return backfaceCulling;
+	}
+
 	@Override
 	public int getPointsCount() {
-		return pointsArray.length;
+		return pointsXArray.length;
 	}
 
 	@Override
@@ -181,17 +297,109 @@ class MJ3DMapImpl implements MJ3DMap {
 	}
 
 	@Override
-	public MJ3DPoint3D[] getPointsArray() {
+	public synchronized MJ3DPoint3D[] getPointsArray() {
+		if(!pointsArrayComplete){
+			for(int i=0; i<pointsArray.length; i++){
+				if(pointsArray[i] == null){
+					pointsArray[i] = new MJ3DPoint3D(pointsXArray[i], pointsYArray[i], pointsZArray[i]);
+					pointsArray[i].setIndex(i);
+				}
+			}
+			pointsArrayComplete = true;
+		}
 		return pointsArray;
 	}
 
+	@Override
+	public float[] getPointsXArray() {
+		return pointsXArray;
+	}
+
+	@Override
+	public float[] getPointsYArray() {
+		return pointsYArray;
+	}
+
+	@Override
+	public float[] getPointsZArray() {
+		return pointsZArray;
+	}
+
 	@Override
 	public int[][] getTriadPointsArray() {
 		return triadPointsArray;
 	}
 
+	@Override
+	public float[] getTriadNormalsArray() {
+		return triadNormalsArray;
+	}
+
+	@Override
+	public MJ3DBoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+		return boundingVolumeHierarchy;
+	}
+
+	@Override
+	public MJ3DTerrainLevelOfDetail[] getTerrainLevelsOfDetail() {
+		return terrainLevelsOfDetail;
+	}
+
+	@Override
+	public MJ3DSpatialIndex getSpatialIndex() {
+		// only maps used by game logic need the index, so it is not built together with the map
+		MJ3DSpatialIndex index = spatialIndex;
+		if(index == null){
+			synchronized (this) {
+				index = spatialIndex;
+				if(index == null){
+					index = new MJ3DSpatialIndex(pointsXArray, pointsYArray, pointsZArray, triadPointsArray);
+					spatialIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
 	@Override
 	public int[] getPointColorsArray() {
 		return pointColorsArray;
 	}
+
+	@Override
+	public synchronized int[] getPointTriadOffsets() {
+		if(pointTriadOffsets == null){
+			createPointTriads();
+		}
+		return pointTriadOffsets;
+	}
+
+	@Override
+	public synchronized int[] getPointTriadIndices() {
+		if(pointTriadIndices == null){
+			createPointTriads();
+		}
+		return pointTriadIndices;
+	}
+
+	private void createPointTriads() {
+		int[] offsets = new int[pointsXArray.length + 1];
+		for(int[] triadPoints : triadPointsArray){
+			for(int vertice=0; vertice<3; vertice++){
+				offsets[triadPoints[vertice] + 1]++;
+			}
+		}
+		for(int i=0; i<pointsXArray.length; i++){
+			offsets[i+1] += offsets[i];
+		}
+		int[] indices = new int[offsets[pointsXArray.length]];
+		int[] fill = Arrays.copyOf(offsets, pointsXArray.length);
+		for(int triad=0; triad<triadPointsArray.length; triad++){
+			for(int vertice=0; vertice<3; vertice++){
+				indices[fill[triadPointsArray[triad][vertice]]++] = triad;
+			}
+		}
+		pointTriadOffsets = offsets;
+		pointTriadIndices = indices;
+	}
 }
@@ -0,0 +1,63 @@
+package de.rochefort.mj3d.objects.maps;
+
+/**
+ * The nearest intersection of a ray with the triads of a map, filled in by {@link MJ3DSpatialIndex}.
+ * Instances are meant to be reused for many queries.
+ */
+public final class MJ3DRayHit {
+	private int triad = -1;
+	private float distance = Float.NaN;
+	private float x = Float.NaN;
+	private float y = Float.NaN;
+	private float z = Float.NaN;
+
+	void set(int triad, float distance, float x, float y, float z) {
+		this.triad = triad;
+		this.distance = distance;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	void clear() {
+		set(-1, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+	}
+
+	/**
+	 * @return true if the ray hit a triad
+	 */
+	public boolean isHit() {
+		return triad >= 0;
+	}
+
+	/**
+	 * @return the index of the triad hit in {@link MJ3DMap#getTriadPointsArray()}, -1 if nothing has been hit
+	 */
+	public int getTriad() {
+		return triad;
+	}
+
+	/**
+	 * @return the distance from the origin of the ray to the hit in units of the ray's direction vector, NaN if nothing has been hit
+	 */
+	public float getDistance() {
+		return distance;
+	}
+
+	public float getX() {
+		return x;
+	}
+
+	public float getY() {
+		return y;
+	}
+
+	public float getZ() {
+		return z;
+	}
+
+	@Override
+	public String toString() {
+		return "MJ3DRayHit [triad=" + triad + ", distance=" + distance + ", x=" + x + ", y=" + y + ", z=" + z + "]";
+	}
+}
@@ -0,0 +1,388 @@
+package de.rochefort.mj3d.objects.maps;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the x-y plane holding the triads of a map, for queries of game logic like the height of the
+ * ground at a location, the triad at a location and the first triad hit by a ray.
+ * Each cell lists all triads whose bounding rectangle overlaps it and knows the z range of these triads,
+ * so rays passing above or below a cell skip it without testing its triads. The grid is sized for a few triads
+ * per cell, so a lookup at a location tests a handful of triads no matter how large the map is.
+ * <p>
+ * The z axis points down, so the topmost of several surfaces at a location is the one with the smallest z.
+ * Instances are immutable and queries allocate nothing, so any number of threads may query concurrently.
+ */
+public class MJ3DSpatialIndex {
+	// one square of a regular terrain grid per cell
+	private static final float TRIADS_PER_CELL = 2f;
+	private static final int MAX_CELLS_PER_SIDE = 4096;
+	// tolerance of the barycentric coordinates, so that points and rays on a shared edge do not slip through
+	private static final float EDGE_TOLERANCE = 1e-5f;
+	private final float[] pointsX;
+	private final float[] pointsY;
+	private final float[] pointsZ;
+	private final int[][] triadPoints;
+	private final float minX;
+	private final float minY;
+	private final float maxX;
+	private final float maxY;
+	private final float cellSize;
+	private final int columns;
+	private final int rows;
+	// the triads overlapping cell i are cellTriads[cellOffsets[i]] to cellTriads[cellOffsets[i+1]-1]
+	private final int[] cellOffsets;
+	private final int[] cellTriads;
+	private final float[] cellMinZ;
+	private final float[] cellMaxZ;
+
+	MJ3DSpatialIndex(float[] pointsX, float[] pointsY, float[] pointsZ, int[][] triadPoints) {
+		this.pointsX = pointsX;
+		this.pointsY = pointsY;
+		this.pointsZ = pointsZ;
+		this.triadPoints = triadPoints;
+		float minX = 0, minY = 0, maxX = 0, maxY = 0;
+		if(triadPoints.length > 0){
+			minX = minY = Float.MAX_VALUE;
+			maxX = maxY = -Float.MAX_VALUE;
+			for(int[] pts : triadPoints){
+				for(int p : pts){
+					minX = Math.min(minX, pointsX[p]);
+					minY = Math.min(minY, pointsY[p]);
+					maxX = Math.max(maxX, pointsX[p]);
+					maxY = Math.max(maxY, pointsY[p]);
+				}
+			}
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		float extentX = maxX - minX;
+		float extentY = maxY - minY;
+		float size = (float)Math.sqrt(extentX * extentY * TRIADS_PER_CELL / Math.max(1, triadPoints.length));
+		size = Math.max(size, Math.max(extentX, extentY) / MAX_CELLS_PER_SIDE);
+		cellSize = size > 0 ? size : 1f;
+		columns = Math.min(MAX_CELLS_PER_SIDE, (int)(extentX / cellSize) + 1);
+		rows = Math.min(MAX_CELLS_PER_SIDE, (int)(extentY / cellSize) + 1);
+		int cellCount = columns * rows;
+		cellOffsets = new int[cellCount + 1];
+		cellMinZ = new float[cellCount];
+		cellMaxZ = new float[cellCount];
+		Arrays.fill(cellMinZ, Float.MAX_VALUE);
+		Arrays.fill(cellMaxZ, -Float.MAX_VALUE);
+		// count the triads of each cell first, so that all cells can share one array
+		int[] cellRange = new int[4];
+		for(int triad=0; triad<triadPoints.length; triad++){
+			int[] pts = triadPoints[triad];
+			float triadMinZ = Math.min(pointsZ[pts[0]], Math.min(pointsZ[pts[1]], pointsZ[pts[2]]));
+			float triadMaxZ = Math.max(pointsZ[pts[0]], Math.max(pointsZ[pts[1]], pointsZ[pts[2]]));
+			getCellRange(pts, cellRange);
+			for(int row=cellRange[2]; row<=cellRange[3]; row++){
+				for(int column=cellRange[0]; column<=cellRange[1]; column++){
+					int cell = row * columns + column;
+					cellOffsets[cell + 1]++;
+					cellMinZ[cell] = Math.min(cellMinZ[cell], triadMinZ);
+					cellMaxZ[cell] = Math.max(cellMaxZ[cell], triadMaxZ);
+				}
+			}
+		}
+		for(int cell=0; cell<cellCount; cell++){
+			cellOffsets[cell + 1] += cellOffsets[cell];
+		}
+		cellTriads = new int[cellOffsets[cellCount]];
+		int[] nextTriads = Arrays.copyOf(cellOffsets, cellCount);
+		for(int triad=0; triad<triadPoints.length; triad++){
+			getCellRange(triadPoints[triad], cellRange);
+			for(int row=cellRange[2]; row<=cellRange[3]; row++){
+				for(int column=cellRange[0]; column<=cellRange[1]; column++){
+					cellTriads[nextTriads[row * columns + column]++] = triad;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stores the first and last column and the first and last row of the cells overlapped by the bounding rectangle of the triad
+	 */
+	private void getCellRange(int[] pts, int[] cellRange) {
+		cellRange[0] = getColumn(Math.min(pointsX[pts[0]], Math.min(pointsX[pts[1]], pointsX[pts[2]])));
+		cellRange[1] = getColumn(Math.max(pointsX[pts[0]], Math.max(pointsX[pts[1]], pointsX[pts[2]])));
+		cellRange[2] = getRow(Math.min(pointsY[pts[0]], Math.min(pointsY[pts[1]], pointsY[pts[2]])));
+		cellRange[3] = getRow(Math.max(pointsY[pts[0]], Math.max(pointsY[pts[1]], pointsY[pts[2]])));
+	}
+
+	private int getColumn(float x) {
+		int column = (int)((x - minX) / cellSize);
+		return column < 0 ? 0 : column >= columns ? columns - 1 : column;
+	}
+
+	private int getRow(float y) {
+		int row = (int)((y - minY) / cellSize);
+		return row < 0 ? 0 : row >= rows ? rows - 1 : row;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the z of the topmost surface at the location, interpolated linearly within the triad, or NaN if there is none
+	 */
+	public float getHeight(float x, float y) {
+		int triad = getTriadAt(x, y);
+		return triad < 0 ? Float.NaN : interpolateZ(triad, x, y);
+	}
+
+	/**
+	 * Looks up the heights of many locations at once, see {@link #getHeight(float, float)}
+	 * @param xs
+	 * @param ys
+	 * @param heights receives the heights, NaN where there is no surface
+	 * @param count the number of locations
+	 */
+	public void getHeights(float[] xs, float[] ys, float[] heights, int count) {
+		for(int i=0; i<count; i++){
+			heights[i] = getHeight(xs[i], ys[i]);
+		}
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the index of the topmost triad at the location in {@link MJ3DMap#getTriadPointsArray()}, or -1 if there is none
+	 */
+	public int getTriadAt(float x, float y) {
+		if(!(x >= minX && x <= maxX && y >= minY && y <= maxY)){
+			return -1;
+		}
+		int cell = getRow(y) * columns + getColumn(x);
+		int topmostTriad = -1;
+		float topmostZ = Float.MAX_VALUE;
+		for(int i=cellOffsets[cell]; i<cellOffsets[cell + 1]; i++){
+			int triad = cellTriads[i];
+			float z = interpolateZ(triad, x, y);
+			if(z < topmostZ){
+				topmostZ = z;
+				topmostTriad = triad;
+			}
+		}
+		return topmostTriad;
+	}
+
+	/**
+	 * Looks up the topmost triads of many locations at once, see {@link #getTriadAt(float, float)}
+	 * @param xs
+	 * @param ys
+	 * @param triads receives the triad indices, -1 where there is no triad
+	 * @param count the number of locations
+	 */
+	public void getTriadsAt(float[] xs, float[] ys, int[] triads, int count) {
+		for(int i=0; i<count; i++){
+			triads[i] = getTriadAt(xs[i], ys[i]);
+		}
+	}
+
+	/**
+	 * @return the z of the triad at the location, or NaN if the location is outside of the triad or the triad is vertical
+	 */
+	private float interpolateZ(int triad, float x, float y) {
+		int[] pts = triadPoints[triad];
+		float x0 = pointsX[pts[0]], y0 = pointsY[pts[0]];
+		float x1 = pointsX[pts[1]], y1 = pointsY[pts[1]];
+		float x2 = pointsX[pts[2]], y2 = pointsY[pts[2]];
+		float determinant = (y1 - y2) * (x0 - x2) + (x2 - x1) * (y0 - y2);
+		if(determinant == 0){
+			return Float.NaN;
+		}
+		float weight0 = ((y1 - y2) * (x - x2) + (x2 - x1) * (y - y2)) / determinant;
+		float weight1 = ((y2 - y0) * (x - x2) + (x0 - x2) * (y - y2)) / determinant;
+		float weight2 = 1 - weight0 - weight1;
+		if(weight0 < -EDGE_TOLERANCE || weight1 < -EDGE_TOLERANCE || weight2 < -EDGE_TOLERANCE){
+			return Float.NaN;
+		}
+		return weight0 * pointsZ[pts[0]] + weight1 * pointsZ[pts[1]] + weight2 * pointsZ[pts[2]];
+	}
+
+	/**
+	 * Finds the nearest triad hit by a ray. Only the cells the ray passes through are visited, in the order it does,
+	 * so the search stops at the first cell containing a hit.
+	 * @param originX
+	 * @param originY
+	 * @param originZ
+	 * @param directionX
+	 * @param directionY
+	 * @param directionZ
+	 * @param maxDistance the largest distance to the hit in units of the direction vector
+	 * @param hit receives the hit, or is cleared if nothing has been hit
+	 * @return true if a triad has been hit
+	 */
+	public boolean intersectRay(float originX, float originY, float originZ, float directionX, float directionY, float directionZ,
+			float maxDistance, MJ3DRayHit hit) {
+		long result = findFirstHit(originX, originY, originZ, directionX, directionY, directionZ, maxDistance);
+		if(result < 0){
+			hit.clear();
+			return false;
+		}
+		float distance = Float.intBitsToFloat((int)(result >>> 32));
+		hit.set((int)result, distance, originX + distance * directionX, originY + distance * directionY, originZ + distance * directionZ);
+		return true;
+	}
+
+	/**
+	 * Intersects many rays at once, see {@link #intersectRay(float, float, float, float, float, float, float, MJ3DRayHit)}
+	 * @param origins the origins of the rays, packed as x, y and z at offsets 3*i, 3*i+1 and 3*i+2 for ray i
+	 * @param directions the directions of the rays, packed like the origins
+	 * @param count the number of rays
+	 * @param maxDistance the largest distance to a hit in units of the direction vector
+	 * @param triads receives the indices of the triads hit, -1 for rays not hitting anything
+	 * @param distances receives the distances to the hits, NaN for rays not hitting anything
+	 * @return the number of rays that hit a triad
+	 */
+	public int intersectRays(float[] origins, float[] directions, int count, float maxDistance, int[] triads, float[] distances) {
+		int hitCount = 0;
+		for(int i=0; i<count; i++){
+			int offset = 3*i;
+			long result = findFirstHit(origins[offset], origins[offset+1], origins[offset+2],
+					directions[offset], directions[offset+1], directions[offset+2], maxDistance);
+			if(result < 0){
+				triads[i] = -1;
+				distances[i] = Float.NaN;
+			} else {
+				triads[i] = (int)result;
+				distances[i] = Float.intBitsToFloat((int)(result >>> 32));
+				hitCount++;
+			}
+		}
+		return hitCount;
+	}
+
+	/**
+	 * Walks the cells along the ray with a 2D digital differential analyzer.
+	 * @return the bits of the distance to the nearest hit in the upper and the triad in the lower half, or -1 if nothing has been hit.
+	 * Distances are never negative, so a hit is never negative either.
+	 */
+	private long findFirstHit(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+		if(triadPoints.length == 0){
+			return -1;
+		}
+		// clip the ray to the rectangle covered by the grid
+		float enter = 0;
+		float exit = maxDistance;
+		if(dx == 0){
+			if(ox < minX || ox > maxX){
+				return -1;
+			}
+		} else {
+			float t1 = (minX - ox) / dx;
+			float t2 = (maxX - ox) / dx;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		if(dy == 0){
+			if(oy < minY || oy > maxY){
+				return -1;
+			}
+		} else {
+			float t1 = (minY - oy) / dy;
+			float t2 = (maxY - oy) / dy;
+			enter = Math.max(enter, Math.min(t1, t2));
+			exit = Math.min(exit, Math.max(t1, t2));
+		}
+		if(enter > exit){
+			return -1;
+		}
+		int column = getColumn(ox + enter * dx);
+		int row = getRow(oy + enter * dy);
+		int stepColumn = dx > 0 ? 1 : -1;
+		int stepRow = dy > 0 ? 1 : -1;
+		float deltaX = dx != 0 ? cellSize / Math.abs(dx) : Float.POSITIVE_INFINITY;
+		float deltaY = dy != 0 ? cellSize / Math.abs(dy) : Float.POSITIVE_INFINITY;
+		float nextX = dx != 0 ? (minX + (dx > 0 ? column + 1 : column) * cellSize - ox) / dx : Float.POSITIVE_INFINITY;
+		float nextY = dy != 0 ? (minY + (dy > 0 ? row + 1 : row) * cellSize - oy) / dy : Float.POSITIVE_INFINITY;
+		float zTolerance = cellSize * EDGE_TOLERANCE;
+		float cellEnter = enter;
+		float nearest = Float.MAX_VALUE;
+		int nearestTriad = -1;
+		while(true){
+			int cell = row * columns + column;
+			float cellExit = Math.min(exit, Math.min(nextX, nextY));
+			float zEnter = oz + cellEnter * dz;
+			float zExit = oz + cellExit * dz;
+			if(Math.max(zEnter, zExit) >= cellMinZ[cell] - zTolerance && Math.min(zEnter, zExit) <= cellMaxZ[cell] + zTolerance){
+				for(int i=cellOffsets[cell]; i<cellOffsets[cell + 1]; i++){
+					int triad = cellTriads[i];
+					float t = intersectTriad(triad, ox, oy, oz, dx, dy, dz);
+					if(t >= 0 && t <= maxDistance && t < nearest){
+						nearest = t;
+						nearestTriad = triad;
+					}
+				}
+			}
+			// hits in later cells are farther away than the end of this one
+			if(nearest <= cellExit || cellExit >= exit){
+				break;
+			}
+			if(nextX < nextY){
+				column += stepColumn;
+				if(column < 0 || column >= columns){
+					break;
+				}
+				cellEnter = nextX;
+				nextX += deltaX;
+			} else {
+				row += stepRow;
+				if(row < 0 || row >= rows){
+					break;
+				}
+				cellEnter = nextY;
+				nextY += deltaY;
+			}
+		}
+		if(nearestTriad < 0){
+			return -1;
+		}
+		return ((long)Float.floatToIntBits(nearest) << 32) | nearestTriad;
+	}
+
+	/**
+	 * Intersects a ray with a triad from both sides (Moeller-Trumbore)
+	 * @return the distance to the intersection in units of the direction vector, or NaN if the ray misses the triad
+	 */
+	private float intersectTriad(int triad, float ox, float oy, float oz, float dx, float dy, float dz) {
+		int[] pts = triadPoints[triad];
+		float x0 = pointsX[pts[0]], y0 = pointsY[pts[0]], z0 = pointsZ[pts[0]];
+		float e1x = pointsX[pts[1]] - x0, e1y = pointsY[pts[1]] - y0, e1z = pointsZ[pts[1]] - z0;
+		float e2x = pointsX[pts[2]] - x0, e2y = pointsY[pts[2]] - y0, e2z = pointsZ[pts[2]] - z0;
+		float px = dy * e2z - dz * e2y;
+		float py = dz * e2x - dx * e2z;
+		float pz = dx * e2y - dy * e2x;
+		float determinant = e1x * px + e1y * py + e1z * pz;
+		if(determinant == 0){
+			return Float.NaN;
+		}
+		float inverse = 1f / determinant;
+		float sx = ox - x0, sy = oy - y0, sz = oz - z0;
+		float u = (sx * px + sy * py + sz * pz) * inverse;
+		if(u < -EDGE_TOLERANCE || u > 1 + EDGE_TOLERANCE){
+			return Float.NaN;
+		}
+		float qx = sy * e1z - sz * e1y;
+		float qy = sz * e1x - sx * e1z;
+		float qz = sx * e1y - sy * e1x;
+		float v = (dx * qx + dy * qy + dz * qz) * inverse;
+		if(v < -EDGE_TOLERANCE || u + v > 1 + EDGE_TOLERANCE){
+			return Float.NaN;
+		}
+		return (e2x * qx + e2y * qy + e2z * qz) * inverse;
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	public int getColumnCount() {
+		return columns;
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+}
@@ -0,0 +1,475 @@
+package de.rochefort.mj3d.objects.maps;
+
+import de.rochefort.mj3d.objects.primitives.MJ3DPoint3D;
+
+/**
+ * Geomipmapping for a square height field terrain. The grid is split into square chunks of {@link #getChunkSize()} cells.
+ * Each chunk can be rendered at any level of a mip pyramid, where level l only uses every 2^l-th row and column of the grid.
+ * For every chunk and level, the geometric error is the largest vertical distance between a grid point and the
+ * coarser surface, so a camera can pick the coarsest level whose error stays below a tolerance on screen.
+ * Neighbouring chunks differ by at most one level. At a border to a coarser neighbour, every other border vertex is snapped
+ * onto its neighbour along the border, which makes the border identical to the neighbour's and closes all cracks.
+ * Triads reference points by their indices in the map, so they share the map's point transformations.
+ * <p>
+ * Borders to other terrains are only stitched with border stitching enabled. The part of the outer border along each chunk 
+ * then gets a level of its own, selected from the border vertices alone, and the chunk is refined where it would be coarser 
+ * than its border. A terrain in another map sharing these border vertices, e.g. a neighbouring tile of a 
+ * {@link de.rochefort.mj3d.objects.terrains.MJ3DStreamingTerrain}, selects the same levels for them, as long as the 
+ * vertices are bit-identical and both maps are rendered by the same camera, so the borders match.
+ */
+public class MJ3DTerrainLevelOfDetail {
+	public static final int DEFAULT_CHUNK_SIZE = 32;
+	// the sides of the grid, the north one is row 0 and the west one is column 0
+	private static final int NORTH = 0;
+	private static final int SOUTH = 1;
+	private static final int WEST = 2;
+	private static final int EAST = 3;
+	private final int[] gridPoints;
+	private final int gridSize;
+	private final int chunkSize;
+	private final int chunksPerSide;
+	private final int levelCount;
+	private final float[] chunkCentersX;
+	private final float[] chunkCentersY;
+	private final float[] chunkCentersZ;
+	private final float[] chunkRadii;
+	private final float[] chunkErrors;
+	// for each side and chunk along it if borders are stitched, empty otherwise
+	private final float[] borderCentersX;
+	private final float[] borderCentersY;
+	private final float[] borderCentersZ;
+	private final float[] borderRadii;
+	private final float[] borderErrors;
+
+	/**
+	 * @param pointGrid the points of the terrain in rows and columns, the number of cells per side must be a power of two
+	 * @param pointsX the x coordinates of the map points
+	 * @param pointsY the y coordinates of the map points
+	 * @param pointsZ the z coordinates of the map points
+	 * @param borderStitching whether levels are selected for the outer borders too, to match terrains of other maps
+	 */
+	MJ3DTerrainLevelOfDetail(MJ3DPoint3D[][] pointGrid, float[] pointsX, float[] pointsY, float[] pointsZ, boolean borderStitching) {
+		this(getGridPoints(pointGrid), pointGrid.length, pointsX, pointsY, pointsZ, borderStitching);
+	}
+
+	/**
+	 * @param gridPoints the indices of the map points of the terrain, row by row
+	 * @param gridSize the number of rows and columns, the number of cells per side must be a power of two
+	 * @param pointsX the x coordinates of the map points
+	 * @param pointsY the y coordinates of the map points
+	 * @param pointsZ the z coordinates of the map points
+	 * @param borderStitching whether levels are selected for the outer borders too, to match terrains of other maps
+	 */
+	MJ3DTerrainLevelOfDetail(int[] gridPoints, int gridSize, float[] pointsX, float[] pointsY, float[] pointsZ, boolean borderStitching) {
+		this.gridSize = gridSize;
+		int cells = gridSize - 1;
+		if(cells < 1 || Integer.bitCount(cells) != 1){
+			throw new IllegalArgumentException("Terrain grid must have 2^n+1 points per side but has "+gridSize);
+		}
+		this.gridPoints = gridPoints;
+		chunkSize = Math.min(DEFAULT_CHUNK_SIZE, cells);
+		chunksPerSide = cells / chunkSize;
+		levelCount = Integer.numberOfTrailingZeros(chunkSize) + 1;
+		int chunkCount = chunksPerSide * chunksPerSide;
+		chunkCentersX = new float[chunkCount];
+		chunkCentersY = new float[chunkCount];
+		chunkCentersZ = new float[chunkCount];
+		chunkRadii = new float[chunkCount];
+		chunkErrors = new float[chunkCount * levelCount];
+		for(int chunk=0; chunk<chunkCount; chunk++){
+			computeBoundingSphere(chunk, pointsX, pointsY, pointsZ);
+			computeErrors(chunk, pointsZ);
+		}
+		int borderCount = borderStitching ? 4 * chunksPerSide : 0;
+		borderCentersX = new float[borderCount];
+		borderCentersY = new float[borderCount];
+		borderCentersZ = new float[borderCount];
+		borderRadii = new float[borderCount];
+		borderErrors = new float[borderCount * levelCount];
+		for(int border=0; border<borderCount; border++){
+			computeBorderBoundingSphere(border, pointsX, pointsY, pointsZ);
+			computeBorderErrors(border, pointsZ);
+		}
+	}
+
+	private static int[] getGridPoints(MJ3DPoint3D[][] pointGrid) {
+		int[] gridPoints = new int[pointGrid.length * pointGrid.length];
+		for(int r=0; r<pointGrid.length; r++){
+			for(int c=0; c<pointGrid.length; c++){
+				gridPoints[r * pointGrid.length + c] = pointGrid[r][c].getIndex();
+			}
+		}
+		return gridPoints;
+	}
+
+	private void computeBoundingSphere(int chunk, float[] pointsX, float[] pointsY, float[] pointsZ){
+		int firstRow = getFirstRow(chunk);
+		int firstCol = getFirstCol(chunk);
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		float maxZ = -Float.MAX_VALUE;
+		for(int r=firstRow; r<=firstRow+chunkSize; r++){
+			for(int c=firstCol; c<=firstCol+chunkSize; c++){
+				int point = gridPoints[r * gridSize + c];
+				minX = Math.min(minX, pointsX[point]);
+				minY = Math.min(minY, pointsY[point]);
+				minZ = Math.min(minZ, pointsZ[point]);
+				maxX = Math.max(maxX, pointsX[point]);
+				maxY = Math.max(maxY, pointsY[point]);
+				maxZ = Math.max(maxZ, pointsZ[point]);
+			}
+		}
+		float cx = 0.5f * (minX + maxX);
+		float cy = 0.5f * (minY + maxY);
+		float cz = 0.5f * (minZ + maxZ);
+		float maxDistanceSquared = 0;
+		for(int r=firstRow; r<=firstRow+chunkSize; r++){
+			for(int c=firstCol; c<=firstCol+chunkSize; c++){
+				int point = gridPoints[r * gridSize + c];
+				float dx = pointsX[point] - cx;
+				float dy = pointsY[point] - cy;
+				float dz = pointsZ[point] - cz;
+				maxDistanceSquared = Math.max(maxDistanceSquared, dx*dx + dy*dy + dz*dz);
+			}
+		}
+		chunkCentersX[chunk] = cx;
+		chunkCentersY[chunk] = cy;
+		chunkCentersZ[chunk] = cz;
+		chunkRadii[chunk] = (float)Math.sqrt(maxDistanceSquared) * 1.0001f + 1e-4f;
+	}
+
+	/**
+	 * Computes for every level the largest vertical distance between a grid point of the chunk and the triads of that level.
+	 * The errors are made monotonic, so a coarser level never has a smaller error than a finer one.
+	 */
+	private void computeErrors(int chunk, float[] pointsZ){
+		int firstRow = getFirstRow(chunk);
+		int firstCol = getFirstCol(chunk);
+		int offset = chunk * levelCount;
+		chunkErrors[offset] = 0;
+		for(int level=1; level<levelCount; level++){
+			int stride = 1 << level;
+			float maxError = chunkErrors[offset + level - 1];
+			for(int r=firstRow; r<=firstRow+chunkSize; r++){
+				int cellRow = Math.min(firstRow + (r - firstRow) / stride * stride, firstRow + chunkSize - stride);
+				float u = (r - cellRow) / (float)stride;
+				for(int c=firstCol; c<=firstCol+chunkSize; c++){
+					int cellCol = Math.min(firstCol + (c - firstCol) / stride * stride, firstCol + chunkSize - stride);
+					float v = (c - cellCol) / (float)stride;
+					float z00 = getZ(pointsZ, cellRow, cellCol);
+					float z01 = getZ(pointsZ, cellRow, cellCol + stride);
+					float z10 = getZ(pointsZ, cellRow + stride, cellCol);
+					float interpolated;
+					if(u + v <= 1){
+						interpolated = z00 + v * (z01 - z00) + u * (z10 - z00);
+					}
+					else{
+						float z11 = getZ(pointsZ, cellRow + stride, cellCol + stride);
+						interpolated = z11 + (1 - v) * (z10 - z11) + (1 - u) * (z01 - z11);
+					}
+					maxError = Math.max(maxError, Math.abs(getZ(pointsZ, r, c) - interpolated));
+				}
+			}
+			chunkErrors[offset + level] = maxError;
+		}
+	}
+
+	/**
+	 * Like {@link #computeBoundingSphere(int, float[], float[], float[])} for the vertices of a border, visited along the border,
+	 * so every terrain sharing them computes the same sphere
+	 */
+	private void computeBorderBoundingSphere(int border, float[] pointsX, float[] pointsY, float[] pointsZ){
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		float maxZ = -Float.MAX_VALUE;
+		for(int t=0; t<=chunkSize; t++){
+			int point = getBorderPoint(border, t);
+			minX = Math.min(minX, pointsX[point]);
+			minY = Math.min(minY, pointsY[point]);
+			minZ = Math.min(minZ, pointsZ[point]);
+			maxX = Math.max(maxX, pointsX[point]);
+			maxY = Math.max(maxY, pointsY[point]);
+			maxZ = Math.max(maxZ, pointsZ[point]);
+		}
+		float cx = 0.5f * (minX + maxX);
+		float cy = 0.5f * (minY + maxY);
+		float cz = 0.5f * (minZ + maxZ);
+		float maxDistanceSquared = 0;
+		for(int t=0; t<=chunkSize; t++){
+			int point = getBorderPoint(border, t);
+			float dx = pointsX[point] - cx;
+			float dy = pointsY[point] - cy;
+			float dz = pointsZ[point] - cz;
+			maxDistanceSquared = Math.max(maxDistanceSquared, dx*dx + dy*dy + dz*dz);
+		}
+		borderCentersX[border] = cx;
+		borderCentersY[border] = cy;
+		borderCentersZ[border] = cz;
+		borderRadii[border] = (float)Math.sqrt(maxDistanceSquared) * 1.0001f + 1e-4f;
+	}
+
+	/**
+	 * Computes for every level the largest vertical distance between a vertex of the border and the border at that level,
+	 * which runs straight from every 2^level-th vertex to the next. Made monotonic like the errors of the chunks.
+	 */
+	private void computeBorderErrors(int border, float[] pointsZ){
+		int offset = border * levelCount;
+		borderErrors[offset] = 0;
+		for(int level=1; level<levelCount; level++){
+			int stride = 1 << level;
+			float maxError = borderErrors[offset + level - 1];
+			for(int t=0; t<=chunkSize; t++){
+				int cell = Math.min(t / stride * stride, chunkSize - stride);
+				float u = (t - cell) / (float)stride;
+				float z0 = pointsZ[getBorderPoint(border, cell)];
+				float z1 = pointsZ[getBorderPoint(border, cell + stride)];
+				float interpolated = z0 + u * (z1 - z0);
+				maxError = Math.max(maxError, Math.abs(pointsZ[getBorderPoint(border, t)] - interpolated));
+			}
+			borderErrors[offset + level] = maxError;
+		}
+	}
+
+	/**
+	 * @param border the side times the number of chunks per side plus the index of the chunk along the side
+	 * @param t the position along the border, from 0 to the chunk size
+	 * @return the index of the map point
+	 */
+	private int getBorderPoint(int border, int t){
+		int position = border % chunksPerSide * chunkSize + t;
+		switch (border / chunksPerSide) {
+			case NORTH:
+				return gridPoints[position];
+			case SOUTH:
+				return gridPoints[(gridSize - 1) * gridSize + position];
+			case WEST:
+				return gridPoints[position * gridSize];
+			default:
+				return gridPoints[position * gridSize + gridSize - 1];
+		}
+	}
+
+	/**
+	 * @return the chunk the border belongs to
+	 */
+	private int getBorderChunk(int border){
+		int index = border % chunksPerSide;
+		switch (border / chunksPerSide) {
+			case NORTH:
+				return index;
+			case SOUTH:
+				return (chunksPerSide - 1) * chunksPerSide + index;
+			case WEST:
+				return index * chunksPerSide;
+			default:
+				return index * chunksPerSide + chunksPerSide - 1;
+		}
+	}
+
+	private float getZ(float[] pointsZ, int row, int col){
+		return pointsZ[gridPoints[row * gridSize + col]];
+	}
+
+	private int getFirstRow(int chunk){
+		return chunk / chunksPerSide * chunkSize;
+	}
+
+	private int getFirstCol(int chunk){
+		return chunk % chunksPerSide * chunkSize;
+	}
+
+	/**
+	 * Picks the coarsest level for every chunk whose geometric error, projected at the smallest distance
+	 * between the camera and the chunk, does not exceed the tolerance. With border stitching, the level of every 
+	 * outer border is picked the same way and chunks are refined to their outer borders' levels. 
+	 * Afterwards, chunks are refined until no two neighbours differ by more than one level.
+	 * @param cameraX
+	 * @param cameraY
+	 * @param cameraZ
+	 * @param pixelsPerUnit the projected size in pixels of a unit length at distance one
+	 * @param tolerance the largest allowed screen space error in pixels
+	 * @param levels receives the level of each chunk, followed by the levels of the outer borders if they are stitched, 
+	 * must hold {@link #getLevelArrayLength()} entries
+	 */
+	public void selectLevels(float cameraX, float cameraY, float cameraZ, float pixelsPerUnit, float tolerance, int[] levels){
+		int chunkCount = getChunkCount();
+		for(int chunk=0; chunk<chunkCount; chunk++){
+			levels[chunk] = selectLevel(chunkCentersX[chunk], chunkCentersY[chunk], chunkCentersZ[chunk], chunkRadii[chunk], 
+					chunkErrors, chunk * levelCount, cameraX, cameraY, cameraZ, pixelsPerUnit, tolerance);
+		}
+		for(int border=0; border<borderRadii.length; border++){
+			int level = selectLevel(borderCentersX[border], borderCentersY[border], borderCentersZ[border], borderRadii[border], 
+					borderErrors, border * levelCount, cameraX, cameraY, cameraZ, pixelsPerUnit, tolerance);
+			levels[chunkCount + border] = level;
+			int chunk = getBorderChunk(border);
+			levels[chunk] = Math.min(levels[chunk], level);
+		}
+		boolean changed = true;
+		while(changed){
+			changed = false;
+			for(int chunk=0; chunk<chunkCount; chunk++){
+				int row = chunk / chunksPerSide;
+				int col = chunk % chunksPerSide;
+				int maxLevel = levels[chunk];
+				if(row > 0)
+					maxLevel = Math.min(maxLevel, levels[chunk - chunksPerSide] + 1);
+				if(row < chunksPerSide - 1)
+					maxLevel = Math.min(maxLevel, levels[chunk + chunksPerSide] + 1);
+				if(col > 0)
+					maxLevel = Math.min(maxLevel, levels[chunk - 1] + 1);
+				if(col < chunksPerSide - 1)
+					maxLevel = Math.min(maxLevel, levels[chunk + 1] + 1);
+				if(maxLevel < levels[chunk]){
+					levels[chunk] = maxLevel;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the coarsest level whose error, projected at the smallest distance between the camera and the sphere, 
+	 * does not exceed the tolerance
+	 */
+	private int selectLevel(float centerX, float centerY, float centerZ, float radius, float[] errors, int offset, 
+			float cameraX, float cameraY, float cameraZ, float pixelsPerUnit, float tolerance){
+		float dx = centerX - cameraX;
+		float dy = centerY - cameraY;
+		float dz = centerZ - cameraZ;
+		float distance = (float)Math.sqrt(dx*dx + dy*dy + dz*dz) - radius;
+		int level = 0;
+		if(distance > 0 && pixelsPerUnit > 0){
+			float maxError = tolerance * distance / pixelsPerUnit;
+			while(level + 1 < levelCount && errors[offset + level + 1] <= maxError){
+				level++;
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * Writes the point indices of the triads of a chunk at its selected level, three per triad.
+	 * Degenerate triads created by stitching are left out.
+	 * @param chunk
+	 * @param levels the levels of all chunks and stitched borders as selected by {@link #selectLevels(float, float, float, float, float, int[])}
+	 * @param triadPoints receives the point indices, must hold at least {@link #getMaxTriadPointsPerChunk()} entries
+	 * @return the number of triads written
+	 */
+	public int getChunkTriads(int chunk, int[] levels, int[] triadPoints){
+		int row = chunk / chunksPerSide;
+		int col = chunk % chunksPerSide;
+		int level = levels[chunk];
+		int stride = 1 << level;
+		// strides along the four borders, coarser where the neighbour or the stitched outer border is coarser
+		int northStride = Math.max(stride, 1 << (row > 0 ? levels[chunk - chunksPerSide] : getOuterBorderLevel(NORTH, col, level, levels)));
+		int southStride = Math.max(stride, 1 << (row < chunksPerSide - 1 ? levels[chunk + chunksPerSide] : getOuterBorderLevel(SOUTH, col, level, levels)));
+		int westStride = Math.max(stride, 1 << (col > 0 ? levels[chunk - 1] : getOuterBorderLevel(WEST, row, level, levels)));
+		int eastStride = Math.max(stride, 1 << (col < chunksPerSide - 1 ? levels[chunk + 1] : getOuterBorderLevel(EAST, row, level, levels)));
+		int firstRow = row * chunkSize;
+		int firstCol = col * chunkSize;
+		int lastRow = firstRow + chunkSize;
+		int lastCol = firstCol + chunkSize;
+		int count = 0;
+		for(int r=firstRow; r<lastRow; r+=stride){
+			for(int c=firstCol; c<lastCol; c+=stride){
+				int p00 = getStitchedPoint(r, c, firstRow, firstCol, lastRow, lastCol, northStride, southStride, westStride, eastStride);
+				int p01 = getStitchedPoint(r, c + stride, firstRow, firstCol, lastRow, lastCol, northStride, southStride, westStride, eastStride);
+				int p10 = getStitchedPoint(r + stride, c, firstRow, firstCol, lastRow, lastCol, northStride, southStride, westStride, eastStride);
+				int p11 = getStitchedPoint(r + stride, c + stride, firstRow, firstCol, lastRow, lastCol, northStride, southStride, westStride, eastStride);
+				// same split of the cells as the full resolution triads of the terrain
+				if(p00 != p01 && p00 != p10 && p01 != p10){
+					triadPoints[3*count] = p00;
+					triadPoints[3*count+1] = p01;
+					triadPoints[3*count+2] = p10;
+					count++;
+				}
+				if(p10 != p01 && p10 != p11 && p01 != p11){
+					triadPoints[3*count] = p10;
+					triadPoints[3*count+1] = p01;
+					triadPoints[3*count+2] = p11;
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private int getOuterBorderLevel(int side, int index, int chunkLevel, int[] levels){
+		return borderRadii.length == 0 ? chunkLevel : levels[getChunkCount() + side * chunksPerSide + index];
+	}
+
+	private int getStitchedPoint(int r, int c, int firstRow, int firstCol, int lastRow, int lastCol, int northStride, int southStride, int westStride, int eastStride){
+		if(r == firstRow){
+			c = firstCol + (c - firstCol) / northStride * northStride;
+		}
+		else if(r == lastRow){
+			c = firstCol + (c - firstCol) / southStride * southStride;
+		}
+		if(c == firstCol){
+			r = firstRow + (r - firstRow) / westStride * westStride;
+		}
+		else if(c == lastCol){
+			r = firstRow + (r - firstRow) / eastStride * eastStride;
+		}
+		return gridPoints[r * gridSize + c];
+	}
+
+	public int getChunkCount() {
+		return chunksPerSide * chunksPerSide;
+	}
+
+	/**
+	 * @return the size of the array needed by {@link #selectLevels(float, float, float, float, float, int[])}
+	 */
+	public int getLevelArrayLength() {
+		return getChunkCount() + borderRadii.length;
+	}
+
+	/**
+	 * @return whether levels are selected for the outer borders, to match terrains of other maps sharing their vertices
+	 */
+	public boolean isBorderStitching() {
+		return borderRadii.length > 0;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	/**
+	 * @return the size of the array needed by {@link #getChunkTriads(int, int[], int[])}
+	 */
+	public int getMaxTriadPointsPerChunk() {
+		return 6 * chunkSize * chunkSize;
+	}
+
+	public float getGeometricError(int chunk, int level) {
+		return chunkErrors[chunk * levelCount + level];
+	}
+
+	public float getCenterX(int chunk) {
+		return chunkCentersX[chunk];
+	}
+
+	public float getCenterY(int chunk) {
+		return chunkCentersY[chunk];
+	}
+
+	public float getCenterZ(int chunk) {
+		return chunkCentersZ[chunk];
+	}
+
+	public float getRadius(int chunk) {
+		return chunkRadii[chunk];
+	}
+}
@@ -13,7 +13,6 @@ public class MJ3DTriad implements MJ3DObject {
 
 	public MJ3DTriad(MJ3DPoint3D[] points) {
 		this.points = points;
-		registerWithPoints();
 //		System.out.println("New Triad: "+this);
 	}
 	public MJ3DTriad(MJ3DPoint3D[] points, Color color) {
@@ -26,9 +25,7 @@ public class MJ3DTriad implements MJ3DObject {
 	}
 
 	public void setPoints(MJ3DPoint3D[] points) {
-		unRegisterWithPoints();
 		this.points = points;
-		registerWithPoints();
 	}
 
 	public Color getColor() {
@@ -73,22 +70,8 @@ public class MJ3DTriad implements MJ3DObject {
 	public void replacePoint(MJ3DPoint3D point, MJ3DPoint3D replacement){
 		for(int i=0; i< this.points.length; i++){
 			if(this.points[i].equals(point)){
-				this.points[i].removeTriad(this);
 				this.points[i]=replacement;
-				this.points[i].addTriad(this);
 			};
 		}
 	}
-	
-	private void registerWithPoints(){
-		for(MJ3DPoint3D v : this.points){
-			v.addTriad(this);
-		}
-	}
-	
-	private void unRegisterWithPoints(){
-		for(MJ3DPoint3D v : this.points){
-			v.removeTriad(this);
-		}
-	}
 }
@@ -2,16 +2,17 @@ package de.rochefort.mj3d.objects.terrains;
 
 import java.awt.Color;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import de.rochefort.mj3d.exceptions.IncompatibleMergeException;
 import de.rochefort.mj3d.math.MJ3DVector;
-import de.rochefort.mj3d.math.randomness.RandomNumberGenerator;
+import de.rochefort.mj3d.math.randomness.KeyedRandomNumberGenerator;
+import de.rochefort.mj3d.objects.MJ3DMesh;
 import de.rochefort.mj3d.objects.Mergeable;
 import de.rochefort.mj3d.objects.primitives.MJ3DPoint3D;
 import de.rochefort.mj3d.objects.primitives.MJ3DTriad;
@@ -24,14 +25,23 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 	private final int seaColorDeep;
 	private List<MJ3DTriad> visibleTriads = new ArrayList<MJ3DTriad>();
 	private List<MJ3DPoint3D> points = new ArrayList<MJ3DPoint3D>();
+	private MJ3DPoint3D[][] pointGrid;
 //	private List<MJ3DVector> edgePoints = new ArrayList<MJ3DVector>();
 	private Map<EdgeType, List<MJ3DPoint3D>> edgePoints = new HashMap<EdgeType, List<MJ3DPoint3D>>();
 	private MJ3DVector vectorOfLight = MJ3DVector.Y_UNIT_VECTOR;
 	private float[][] heights;
+	// the heights set by preSeed, which smoothing leaves untouched; null if there are none
+	private boolean[][] seeded;
 	private final float roughness;
 	private final float width;
 	private int steps;
-	private RandomNumberGenerator randGen;
+	private KeyedRandomNumberGenerator randGen;
+	// the sum of all translations, to find the grid position of a point from its coordinates
+	private float translationX;
+	private float translationY;
+	private int generatorThreadCount = 1;
+	// owned by the caller if set, used instead of a pool per generation
+	private ForkJoinPool generatorPool;
 	private float seaLevel;
 	private float ambientLight;
 	private float initialAmplitude;
@@ -59,7 +69,7 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 	
 	public MJ3DDiamondSquareTerrain(long seed, float width, int steps, float roughness, float initialAmplitude, Color shadeColor, float seaLevel, int seaColorDeep,  int seaColorShallow, float ambientLight) {
 		this(width, steps, roughness, shadeColor, seaLevel, seaColorDeep, seaColorShallow, ambientLight);
-		randGen = new RandomNumberGenerator(seed);
+		randGen = new KeyedRandomNumberGenerator(seed);
 		this.initialAmplitude = initialAmplitude;
 		int rows = (int) Math.pow(2, steps) + 1;
 		heights = new float[rows][rows];
@@ -71,9 +81,132 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 	}
 
 	public void create(boolean wrappable){
+		createHeights(wrappable);
+		createTriads();
+	}
+
+	/**
+	 * Computes the heights without creating points and triads, e.g. to emit them with {@link #createMesh()} instead
+	 * @param wrappable
+	 */
+	public void createHeights(boolean wrappable){
 		createDiamondSquareTerrain(wrappable);
 		smoothOutSpikes();
-		createTriads();
+	}
+
+	/**
+	 * Creates a grid mesh from the heights computed by {@link #createHeights(boolean)}, with the same points, 
+	 * triads and colors {@link #create(boolean)} creates as objects. Rows are emitted in parallel with the 
+	 * number of generator threads. The mesh is independent of this terrain, so {@link #translate(MJ3DVector)} does not move it.
+	 * @return a mesh with one vertex per height, row by row
+	 */
+	public MJ3DMesh createMesh(){
+		int rows = heights.length;
+		// the center is set by the first diamond step
+		if(heights[rows / 2][rows / 2] == Float.MAX_VALUE){
+			throw new IllegalStateException("Heights have not been created yet");
+		}
+		float maxZ = Float.MIN_VALUE;
+		for(int r = 0; r<rows; r++){
+			for(int c = 0; c<rows; c++){
+				if(heights[r][c] > maxZ){
+					maxZ = heights[r][c];
+				}
+			}
+		}
+		float[] positions = new float[3 * rows * rows];
+		int triadCount = 2 * (rows - 1) * (rows - 1);
+		int[] indices = new int[3 * triadCount];
+		int[] triadColors = new int[triadCount];
+		ForkJoinPool pool = generatorPool;
+		boolean ownPool = pool == null && generatorThreadCount > 1;
+		if(ownPool){
+			pool = new ForkJoinPool(generatorThreadCount);
+		}
+		try {
+			MeshTask task = new MeshTask(pool != null, positions, indices, triadColors, maxZ, 0, rows);
+			if(pool == null){
+				task.compute();
+			} else {
+				pool.invoke(task);
+			}
+		} finally {
+			if(ownPool){
+				pool.shutdown();
+			}
+		}
+		return new MJ3DMesh(positions, indices, triadColors, rows);
+	}
+
+	/**
+	 * Emits the vertices of a row and, unless it is the last row, the two triads of every cell between it and the next row,
+	 * with the triad order and colors of {@link #createTriads()}
+	 */
+	private void fillMeshRow(int r, float[] positions, int[] indices, int[] triadColors, float maxZ) {
+		int rows = heights.length;
+		float deltaX = width / (rows - 1);
+		for (int c = 0; c < rows; c++) {
+			int vertex = r * rows + c;
+			positions[3*vertex] = deltaX * r;
+			positions[3*vertex+1] = deltaX * c;
+			// see createSeaLevel
+			positions[3*vertex+2] = Math.min(heights[r][c], seaLevel);
+		}
+		if(r == rows - 1){
+			return;
+		}
+		float illuminationFactor = (1f - ambientLight) *0.5f;
+		int shade = colorShade.getRGB();
+		for (int c = 0; c < rows - 1; c++) {
+			int triad = 2 * (r * (rows - 1) + c);
+			int p1 = r * rows + c;
+			int p2 = p1 + 1;
+			int p3 = p1 + rows;
+			int p4 = p3 + 1;
+			indices[3*triad] = p1;
+			indices[3*triad+1] = p2;
+			indices[3*triad+2] = p3;
+			indices[3*triad+3] = p3;
+			indices[3*triad+4] = p2;
+			indices[3*triad+5] = p4;
+			float h1 = heights[r][c];
+			float h2 = heights[r][c+1];
+			float h3 = heights[r+1][c];
+			float h4 = heights[r+1][c+1];
+			// like createTriads, both triads of a cell are lit with the normal of the first
+			float ax = deltaX * r - deltaX * r;
+			float ay = deltaX * (c+1) - deltaX * c;
+			float az = h2 - h1;
+			float bx = deltaX * (r+1) - deltaX * r;
+			float by = deltaX * c - deltaX * c;
+			float bz = h3 - h1;
+			float nx = ay * bz - az * by;
+			float ny = az * bx - ax * bz;
+			float nz = ax * by - ay * bx;
+			float scale = 1f / (float)Math.sqrt(nx*nx+ny*ny+nz*nz);
+			nx *= scale;
+			ny *= scale;
+			nz *= scale;
+			float lighting = ambientLight - illuminationFactor * (vectorOfLight.getX() * nx + vectorOfLight.getY() * ny + vectorOfLight.getZ() * nz - 1);
+			boolean p1sl = h1>=seaLevel;
+			boolean p2sl = h2>=seaLevel;
+			boolean p3sl = h3>=seaLevel;
+			boolean p4sl = h4>=seaLevel;
+			if(p1sl && p2sl && p3sl){
+				float midDepth = (h1 + h2 + h3) / 3f  -  seaLevel;
+				triadColors[triad] = ColorBlender.blendRGB(seaColorShallow, seaColorDeep, midDepth / (maxZ - seaLevel));
+			}
+			else{
+				triadColors[triad] = ColorBlender.scaleRGB(shade, lighting);
+			}
+			if(p2sl && p3sl && p4sl){
+				float midDepth = (h3 + h2 + h4) / 3f  -  seaLevel;
+				triadColors[triad+1] = ColorBlender.blendRGB(seaColorShallow, seaColorDeep, midDepth / (maxZ - seaLevel));
+			}
+			else{
+				triadColors[triad+1] = ColorBlender.scaleRGB(shade, lighting);
+			}
+		}
 	}
 	
 	
@@ -85,6 +218,35 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 		return heights;
 	}
 
+	/**
+	 * Sets the number of threads {@link #create(boolean)} computes the heights with. 
+	 * The heights only depend on the seed, not on the number of threads.
+	 * @param generatorThreadCount the number of threads, 1 to compute the heights on the calling thread
+	 */
+	public void setGeneratorThreadCount(int generatorThreadCount) {
+		if(generatorThreadCount < 1){
+			throw new IllegalArgumentException("Generator thread count must be positive but was "+generatorThreadCount);
+		}
+		this.generatorThreadCount = generatorThreadCount;
+	}
+
+	public int getGeneratorThreadCount() {
+		return generatorThreadCount;
+	}
+
+	/**
+	 * Sets a pool to compute the heights and meshes with instead of a new pool of {@link #getGeneratorThreadCount()} threads 
+	 * for every call. The pool belongs to the caller and is not shut down.
+	 * @param generatorPool the pool, null to go back to the generator thread count
+	 */
+	public void setGeneratorPool(ForkJoinPool generatorPool) {
+		this.generatorPool = generatorPool;
+	}
+
+	public ForkJoinPool getGeneratorPool() {
+		return generatorPool;
+	}
+
 	private void createTriads() {
 		float maxZ = Float.MIN_VALUE;
 		for(int r = 0; r<heights.length; r++){
@@ -101,7 +263,6 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 		for (int r = 0; r < heights.length; r++) {
 			for (int c = 0; c < heights.length; c++) {
 				tmpPoints[r][c] = new MJ3DPoint3D(deltaX * r, deltaX * c, heights[r][c]);
-				tmpPoints[r][c].setTerrainPointPosition(this, r, c);
 				this.points.add(tmpPoints[r][c]);
 				
 				if(r==0)
@@ -114,6 +275,7 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 					edgePoints.get(EdgeType.EAST).add(tmpPoints[r][c]);
 			}
 		}		
+		pointGrid = tmpPoints;
 
 		float illuminationFactor = (1f - ambientLight) *0.5f;
 		for (int r = 0; r < heights.length - 1; r++) {
@@ -173,6 +335,9 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 	private void smoothOutSpikes() {
 		for (int row = 0; row < heights.length; row++) {
 			for (int col = 0; col < heights.length; col++) {
+				if(seeded != null && seeded[row][col]){
+					continue;
+				}
 				Diamond diamond = getDiamond(row, col, heights.length, 1);
 				float h = heights[row][col];
 				float hLeft = heights[row][diamond.getColLeft()];
@@ -210,6 +375,10 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 	 * Arrangement of input points:
 	 * 
 	 * P0 P1 P2 P3
+	 * 
+	 * Every random offset is keyed by the seed, the step and the grid point, so the passes of a step can fill their 
+	 * rows in any order. Within a step, the diamond pass only reads the corners of the previous steps and the square 
+	 * pass only reads those and the diamond centers, so the rows of each pass are independent of each other.
 	 */
 	private void createDiamondSquareTerrain(boolean wrappable) {
 		int totalRowCount = heights.length;
@@ -225,61 +394,81 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 		if(heights[totalRowCount - 1][squareEdgeLength] == Float.MAX_VALUE)
 			heights[totalRowCount - 1][squareEdgeLength] = 0;
 
-		for (int i = 0; i < steps; i++) {
-			// Diamond Step
-			for (int diamondRow = halfSquareEdgeLength; diamondRow < totalRowCount; diamondRow += squareEdgeLength) {
-				for (int diamondCol = halfSquareEdgeLength; diamondCol < totalRowCount; diamondCol += squareEdgeLength) {
-					float h1 = heights[diamondRow - halfSquareEdgeLength][diamondCol - halfSquareEdgeLength];
-					float h2 = heights[diamondRow - halfSquareEdgeLength][diamondCol + halfSquareEdgeLength];
-					float h3 = heights[diamondRow + halfSquareEdgeLength][diamondCol - halfSquareEdgeLength];
-					float h4 = heights[diamondRow + halfSquareEdgeLength][diamondCol + halfSquareEdgeLength];
-					heights[diamondRow][diamondCol] = 0.25f * (h1 + h2 + h3 + h4) + randGen.randomFloatRepeatable(-amplitude, amplitude);
-//					if(wrappable){
-//						if(diamondCol==0){
-//							heights[diamondRow][totalRowCount-1] = heights[diamondRow][diamondCol];
-//						}
-//						if(diamondRow == 0){
-//							heights[totalRowCount-1][diamondCol] = heights[diamondRow][diamondCol];
-//						}
-//					}
-				}
-			}
-			// Square Step
-//			int maxCount = wrappable ? totalRowCount-1: totalRowCount;
-			for (int diamondRow = halfSquareEdgeLength; diamondRow < totalRowCount; diamondRow += squareEdgeLength) {
-				for (int diamondCol = halfSquareEdgeLength; diamondCol < totalRowCount; diamondCol += squareEdgeLength) {
-					if(heights[diamondRow][diamondCol - halfSquareEdgeLength] == Float.MAX_VALUE)
-						heights[diamondRow][diamondCol - halfSquareEdgeLength] = getDiamondHeight(diamondRow, diamondCol - halfSquareEdgeLength, squareEdgeLength, totalRowCount, amplitude);
-					if(heights[diamondRow][diamondCol + halfSquareEdgeLength] == Float.MAX_VALUE)
-						heights[diamondRow][diamondCol + halfSquareEdgeLength] = getDiamondHeight(diamondRow, diamondCol + halfSquareEdgeLength, squareEdgeLength, totalRowCount, amplitude);
-					if(heights[diamondRow - halfSquareEdgeLength][diamondCol] == Float.MAX_VALUE)
-						heights[diamondRow - halfSquareEdgeLength][diamondCol] = getDiamondHeight(diamondRow - halfSquareEdgeLength, diamondCol, squareEdgeLength, totalRowCount, amplitude);
-					if(heights[diamondRow + halfSquareEdgeLength][diamondCol] == Float.MAX_VALUE)
-						heights[diamondRow + halfSquareEdgeLength][diamondCol] = getDiamondHeight(diamondRow + halfSquareEdgeLength, diamondCol, squareEdgeLength, totalRowCount, amplitude);
-					if(wrappable){
-						if (diamondRow == halfSquareEdgeLength) {
-									// r					//c											// r				//c
-							heights[totalRowCount - 1][diamondCol] = heights[0][diamondCol];
-//							heights[totalRowCount - 1][diamondCol + halfSquareEdgeLength] = heights[0][diamondCol + halfSquareEdgeLength];
-						}
-						if (diamondCol == halfSquareEdgeLength) {
-							heights[diamondRow][totalRowCount - 1] = heights[diamondRow][0];
-//							heights[diamondRow + halfSquareEdgeLength][totalRowCount - 1] = heights[diamondRow + halfSquareEdgeLength][0];
-						}
+		ForkJoinPool pool = generatorPool;
+		boolean ownPool = pool == null && generatorThreadCount > 1;
+		if(ownPool){
+			pool = new ForkJoinPool(generatorThreadCount);
+		}
+		try {
+			for (int i = 0; i < steps; i++) {
+				// Diamond Step: the centers of the squares, on every other row starting at half the edge length
+				int diamondRowCount = (totalRowCount - 1) / squareEdgeLength;
+				runPass(pool, new PassTask(pool != null, true, i, 0, diamondRowCount, squareEdgeLength, amplitude));
+				// Square Step: the midpoints of the square edges, on every row that is a multiple of half the edge length
+				int squareRowCount = (totalRowCount - 1) / halfSquareEdgeLength + 1;
+				runPass(pool, new PassTask(pool != null, false, i, 0, squareRowCount, squareEdgeLength, amplitude));
+				if(wrappable){
+					for (int diamondCol = halfSquareEdgeLength; diamondCol < totalRowCount; diamondCol += squareEdgeLength) {
+						heights[totalRowCount - 1][diamondCol] = heights[0][diamondCol];
+					}
+					for (int diamondRow = halfSquareEdgeLength; diamondRow < totalRowCount; diamondRow += squareEdgeLength) {
+						heights[diamondRow][totalRowCount - 1] = heights[diamondRow][0];
 					}
 				}
+				squareEdgeLength = halfSquareEdgeLength;
+				halfSquareEdgeLength *= 0.5;
+				amplitude *= this.roughness;
+			}
+		} finally {
+			if(ownPool){
+				pool.shutdown();
 			}
-			squareEdgeLength = halfSquareEdgeLength;
-			halfSquareEdgeLength *= 0.5;
-			amplitude *= this.roughness;
 		}
 	}
 
-	private float getDiamondHeight(int row, int col, int squareEdgeLength, int totalRowCount, float amplitude) {
+	private void runPass(ForkJoinPool pool, PassTask task) {
+		if(pool == null){
+			task.compute();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	private void fillDiamondRow(int step, int diamondRow, int squareEdgeLength, float amplitude) {
+		int totalRowCount = heights.length;
+		int halfSquareEdgeLength = squareEdgeLength / 2;
+		for (int diamondCol = halfSquareEdgeLength; diamondCol < totalRowCount; diamondCol += squareEdgeLength) {
+			float h1 = heights[diamondRow - halfSquareEdgeLength][diamondCol - halfSquareEdgeLength];
+			float h2 = heights[diamondRow - halfSquareEdgeLength][diamondCol + halfSquareEdgeLength];
+			float h3 = heights[diamondRow + halfSquareEdgeLength][diamondCol - halfSquareEdgeLength];
+			float h4 = heights[diamondRow + halfSquareEdgeLength][diamondCol + halfSquareEdgeLength];
+			heights[diamondRow][diamondCol] = 0.25f * (h1 + h2 + h3 + h4) + getRandomOffset(step, diamondRow, diamondCol, amplitude);
+		}
+	}
+
+	/**
+	 * Fills the edge midpoints of a row that have not been set yet. On rows through the square corners, they lie between 
+	 * the corners, on rows through the square centers, they lie on the corner columns.
+	 */
+	private void fillSquareRow(int step, int row, int squareEdgeLength, float amplitude) {
+		int totalRowCount = heights.length;
+		int halfSquareEdgeLength = squareEdgeLength / 2;
+		int firstCol = row % squareEdgeLength == 0 ? halfSquareEdgeLength : 0;
+		for (int col = firstCol; col < totalRowCount; col += squareEdgeLength) {
+			if(heights[row][col] == Float.MAX_VALUE)
+				heights[row][col] = getDiamondHeight(step, row, col, squareEdgeLength, totalRowCount, amplitude);
+		}
+	}
+
+	private float getDiamondHeight(int step, int row, int col, int squareEdgeLength, int totalRowCount, float amplitude) {
 		int delta = (int) (0.5 * squareEdgeLength);
 		Diamond diamond = getDiamond(row, col, totalRowCount, delta);
 		float result = 0.25f * (heights[diamond.getRowTop()][col] + heights[diamond.getRowBottom()][col] + heights[row][diamond.getColLeft()] + heights[row][diamond.getColRight()]);
-		return result+this.randGen.randomFloatRepeatable(-amplitude, amplitude);
+		return result+getRandomOffset(step, row, col, amplitude);
+	}
+
+	private float getRandomOffset(int step, int row, int col, float amplitude) {
+		return randGen.randomFloatRepeatable(step, row, col, -amplitude, amplitude);
 	}
 
 	private Diamond getDiamond(int row, int col, int totalRowCount, int delta) {
@@ -309,6 +498,8 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 	}
 	
 	public void translate(MJ3DVector translationVector){
+		translationX += translationVector.getX();
+		translationY += translationVector.getY();
 		List<MJ3DPoint3D> points = getPoints();
 		for(MJ3DPoint3D p : points){
 			p.translate(translationVector);
@@ -352,10 +543,26 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 	}
 	
 
+	/**
+	 * Fixes the height of a grid point before {@link #create(boolean)}, e.g. to continue the edge of a neighbouring terrain. 
+	 * The heights of the other points are derived from it, and it is kept exactly as given.
+	 * @param row
+	 * @param column
+	 * @param height
+	 */
 	public void preSeed(int row, int column, float height){
 		this.heights[row][column] = height;
+		if(seeded == null){
+			seeded = new boolean[heights.length][heights.length];
+		}
+		seeded[row][column] = true;
 	}
 	
+	/**
+	 * Replaces the points of an edge by the points of an edge of another terrain. Edge points are listed in the order 
+	 * of their rows or columns, so the i-th points of both edges are joined, which takes time linear in the edge length.
+	 * Both edges have to run in the same direction, as they do for terrains translated along the x and y axes.
+	 */
 	@Override
 	public void merge(Mergeable mergeable, EdgeType ownEdge, EdgeType otherEdge){
 		List<MJ3DPoint3D> ownEdgePoints = getEdgePoints(ownEdge);
@@ -363,25 +570,72 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 		if(ownEdgePoints.size() != otherEdgePoints.size()){
 			throw new IncompatibleMergeException("Own edge points count "+ownEdgePoints.size()+" does not match other edge points count "+otherEdgePoints.size());
 		}
-		Comparator<MJ3DVector> comp = MJ3DVector.getXyzComparator();
-		Collections.sort(ownEdgePoints, comp);
-		Collections.sort(otherEdgePoints, comp);
+		int last = heights.length - 1;
 		for(int i=0; i<ownEdgePoints.size(); i++){
-			replace(ownEdgePoints.get(i), otherEdgePoints.get(i));
+			switch (ownEdge) {
+			case NORTH:
+				replace(0, i, otherEdgePoints.get(i));
+				break;
+			case SOUTH:
+				replace(last, i, otherEdgePoints.get(i));
+				break;
+			case WEST:
+				replace(i, 0, otherEdgePoints.get(i));
+				break;
+			case EAST:
+				replace(i, last, otherEdgePoints.get(i));
+				break;
+			default:
+				throw new IncompatibleMergeException("Terrains have no "+ownEdge+" edge");
+			}
 		}
 	}
 	
+	/**
+	 * Replaces a point of this terrain, see {@link #replace(int, int, MJ3DPoint3D)}. 
+	 * Its grid position is derived from its coordinates, so it has to be where this terrain put it.
+	 * @param point a point of this terrain
+	 * @param replacement the point to use instead, e.g. of a neighbouring terrain
+	 */
 	public void replace(MJ3DPoint3D point, MJ3DPoint3D replacement){
-		int r = point.getTerrainPointRow(this);
-		int c = point.getTerrainPointCol(this);
-		replacement.setTerrainPointPosition(this, r, c);
-		points.remove(point);
-		points.add(replacement);
+		float deltaX = width / (heights.length - 1);
+		int r = Math.round((point.getX() - translationX) / deltaX);
+		int c = Math.round((point.getY() - translationY) / deltaX);
+		if(r < 0 || c < 0 || r >= heights.length || c >= heights.length || pointGrid[r][c] != point){
+			throw new IllegalArgumentException("Point "+point+" is not a point of this terrain");
+		}
+		replace(r, c, replacement);
+	}
+	
+	/**
+	 * Replaces a point of this terrain in its grid, its edges and its triads, which are found by the grid position 
+	 * instead of searching, so it takes constant time
+	 * @param r the row of the point to replace
+	 * @param c the column of the point to replace
+	 * @param replacement the point to use instead, e.g. of a neighbouring terrain
+	 */
+	public void replace(int r, int c, MJ3DPoint3D replacement){
+		MJ3DPoint3D point = pointGrid[r][c];
+		int rows = heights.length;
+		// points are kept in the order they have been created in, row by row
+		points.set(r * rows + c, replacement);
+		pointGrid[r][c] = replacement;
 		heights[r][c]=replacement.getZ();
-		List<MJ3DTriad> triads = new ArrayList<MJ3DTriad>();
-		triads.addAll(point.getTriads());
-		for(MJ3DTriad t : triads){
-			t.replacePoint(point, replacement);
+		if(r==0)
+			edgePoints.get(EdgeType.NORTH).set(c, replacement);
+		if(r==rows-1)
+			edgePoints.get(EdgeType.SOUTH).set(c, replacement);
+		if(c==0)
+			edgePoints.get(EdgeType.WEST).set(r, replacement);
+		if(c==rows-1)
+			edgePoints.get(EdgeType.EAST).set(r, replacement);
+		// the point is a corner of up to four cells, see createTriads
+		for(int cellRow = Math.max(0, r-1); cellRow <= Math.min(rows-2, r); cellRow++){
+			for(int cellCol = Math.max(0, c-1); cellCol <= Math.min(rows-2, c); cellCol++){
+				int triad = 2 * (cellRow * (rows - 1) + cellCol);
+				visibleTriads.get(triad).replacePoint(point, replacement);
+				visibleTriads.get(triad + 1).replacePoint(point, replacement);
+			}
 		}
 	}
 	
@@ -395,6 +649,13 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 ////		System.out.println("Points merged: "+pointsMerged);
 //	}
 
+	/**
+	 * @return the points of this terrain arranged in rows and columns like {@link #getHeights()}
+	 */
+	public MJ3DPoint3D[][] getPointGrid() {
+		return pointGrid;
+	}
+
 	@Override
 	public List<MJ3DPoint3D> getPoints() {
 		return this.points;
@@ -405,4 +666,98 @@ public class MJ3DDiamondSquareTerrain extends MJ3DTerrain implements Mergeable {
 		return points.size();
 	}
 
+	/**
+	 * Fills a range of the rows of one diamond or square pass, splitting it while it is large
+	 */
+	private class PassTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		// below this number of grid points a task fills its rows itself
+		private static final int MIN_POINTS_PER_TASK = 8192;
+		private final boolean parallel;
+		private final boolean diamondPass;
+		private final int step;
+		private final int firstRowIndex;
+		private final int endRowIndex;
+		private final int squareEdgeLength;
+		private final float amplitude;
+
+		/**
+		 * @param parallel whether large tasks are split, only if the task is run by a pool
+		 * @param diamondPass true for the diamond pass, false for the square pass
+		 * @param step
+		 * @param firstRowIndex the first row of the pass to fill, counting only the rows the pass touches
+		 * @param endRowIndex the index after the last row to fill
+		 * @param squareEdgeLength the edge length of the squares of this step
+		 * @param amplitude
+		 */
+		public PassTask(boolean parallel, boolean diamondPass, int step, int firstRowIndex, int endRowIndex, int squareEdgeLength, float amplitude) {
+			this.parallel = parallel;
+			this.diamondPass = diamondPass;
+			this.step = step;
+			this.firstRowIndex = firstRowIndex;
+			this.endRowIndex = endRowIndex;
+			this.squareEdgeLength = squareEdgeLength;
+			this.amplitude = amplitude;
+		}
+
+		@Override
+		protected void compute() {
+			int rowCount = endRowIndex - firstRowIndex;
+			int pointsPerRow = heights.length / squareEdgeLength + 1;
+			if(parallel && rowCount > 1 && (long)rowCount * pointsPerRow > MIN_POINTS_PER_TASK){
+				int middle = firstRowIndex + rowCount / 2;
+				invokeAll(new PassTask(true, diamondPass, step, firstRowIndex, middle, squareEdgeLength, amplitude),
+						new PassTask(true, diamondPass, step, middle, endRowIndex, squareEdgeLength, amplitude));
+				return;
+			}
+			int halfSquareEdgeLength = squareEdgeLength / 2;
+			for(int rowIndex=firstRowIndex; rowIndex<endRowIndex; rowIndex++){
+				if(diamondPass){
+					fillDiamondRow(step, halfSquareEdgeLength + rowIndex * squareEdgeLength, squareEdgeLength, amplitude);
+				} else {
+					fillSquareRow(step, rowIndex * halfSquareEdgeLength, squareEdgeLength, amplitude);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Emits a range of rows of the mesh, splitting it while it is large
+	 */
+	private class MeshTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		// below this number of rows a task emits its rows itself
+		private static final int MIN_ROWS_PER_TASK = 16;
+		private final boolean parallel;
+		private final float[] positions;
+		private final int[] indices;
+		private final int[] triadColors;
+		private final float maxZ;
+		private final int firstRow;
+		private final int endRow;
+
+		public MeshTask(boolean parallel, float[] positions, int[] indices, int[] triadColors, float maxZ, int firstRow, int endRow) {
+			this.parallel = parallel;
+			this.positions = positions;
+			this.indices = indices;
+			this.triadColors = triadColors;
+			this.maxZ = maxZ;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute() {
+			if(parallel && endRow - firstRow > MIN_ROWS_PER_TASK){
+				int middle = (firstRow + endRow) / 2;
+				invokeAll(new MeshTask(true, positions, indices, triadColors, maxZ, firstRow, middle),
+						new MeshTask(true, positions, indices, triadColors, maxZ, middle, endRow));
+				return;
+			}
+			for(int r=firstRow; r<endRow; r++){
+				fillMeshRow(r, positions, indices, triadColors, maxZ);
+			}
+		}
+	}
+
 }
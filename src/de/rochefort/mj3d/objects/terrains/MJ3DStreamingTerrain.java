@@ -0,0 +1,551 @@
+package de.rochefort.mj3d.objects.terrains;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import de.rochefort.mj3d.objects.MJ3DMesh;
+import de.rochefort.mj3d.objects.maps.MJ3DMap;
+import de.rochefort.mj3d.objects.maps.MJ3DMapBuilder;
+import de.rochefort.mj3d.view.MJ3DRenderContextPool;
+
+/**
+ * Unbounded terrain made of square diamond square tiles, which are generated around the camera on background threads
+ * and dropped again when the camera is far away.
+ * <p>
+ * Tile (i, j) covers x from i*tileWidth to (i+1)*tileWidth and y from j*tileWidth to (j+1)*tileWidth.
+ * Each tile is a map of its own, so it can be built completely in the background and rendered without touching
+ * the other tiles, see {@link de.rochefort.mj3d.view.MJ3DCamera#paintImage(de.rochefort.mj3d.view.ZBuffer, List, float, float, float, int, int)}.
+ * A new tile is seeded with the edge heights of all neighbours that exist at that time, so neighbouring tiles
+ * always meet without cracks. For that, neighbouring tiles are never generated at the same time.
+ * Tiles are seeded with the neighbours present when they are generated, so a tile regenerated after having been
+ * dropped looks the same only in its interior structure, not necessarily along its edges.
+ * <p>
+ * With level of detail enabled, the tiles stitch their outer borders, see {@link MJ3DMapBuilder#setTerrainBorderStitching(boolean)}:
+ * the two tiles along an edge select the same level for it, so they meet without cracks at any level.
+ * This relies on the tiles sharing bit-identical edge vertices and being rendered by the same camera in the same frame.
+ * <p>
+ * Call {@link #update(float, float)} once per frame with the camera location: it requests the missing tiles
+ * within the load radius, makes the tiles finished in the meantime visible and drops the least recently used tiles
+ * beyond the maximum tile count. It never waits for a tile to be generated.
+ * If generating a tile fails, the failure is kept, see {@link #getTileFailure(float, float)}, and the tile is requested
+ * again only after {@link #FIRST_RETRY_DELAY} updates, a delay that doubles with every further failure
+ * up to {@link #MAX_RETRY_DELAY} updates.
+ * Apart from the background threads, instances are meant to be used by the render thread only.
+ */
+public class MJ3DStreamingTerrain implements AutoCloseable {
+	public static final int FIRST_RETRY_DELAY = 60;
+	public static final int MAX_RETRY_DELAY = 60 * 64;
+	private final long seed;
+	private final float tileWidth;
+	private final int steps;
+	private final float roughness;
+	private final float initialAmplitude;
+	private final Color shadeColor;
+	private final float seaLevel;
+	private final int seaColorDeep;
+	private final int seaColorShallow;
+	private final float ambientLight;
+	private Color backgroundColor = Color.BLACK;
+	private boolean foggy = true;
+	private boolean terrainLevelOfDetail = false;
+	private int loadRadius = 1;
+	private int maxTileCount = 25;
+	private int generatorThreadCount = 1;
+	private MJ3DMap baseMap;
+	private ExecutorService generators;
+	// guarded by this: the visible tiles in access order, the tiles being generated and the ones still wanted
+	private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(16, 0.75f, true);
+	// guarded by this: the visible and the finished tiles by key, to look them up without counting as a use of a visible tile
+	private final Map<Long, Tile> residentTiles = new HashMap<Long, Tile>();
+	private final Set<Long> generatingTiles = new HashSet<Long>();
+	private final List<Long> wantedTiles = new ArrayList<Long>();
+	// guarded by this: the tiles whose last generation failed, and the update from which one of them is due to be requested again
+	private final Map<Long, TileFailure> failedTiles = new HashMap<Long, TileFailure>();
+	private long nextRetryUpdate = Long.MAX_VALUE;
+	private long updateCount = 0;
+	// generated, but not visible yet
+	private final ConcurrentLinkedQueue<Tile> finishedTiles = new ConcurrentLinkedQueue<Tile>();
+	// replaced, never modified, so a list handed out stays valid
+	private volatile List<MJ3DRenderContextPool> visibleContextPools = Collections.emptyList();
+	private int centerTileX = Integer.MIN_VALUE;
+	private int centerTileY = Integer.MIN_VALUE;
+	private boolean visibleTilesChanged = true;
+	private volatile boolean closed = false;
+
+	/**
+	 * Takes the same parameters as {@link MJ3DDiamondSquareTerrain#MJ3DDiamondSquareTerrain(long, float, int, float, float, Color, float, int, int, float)}
+	 * and applies them to every tile. The seed of each tile is derived from the given seed and its position.
+	 */
+	public MJ3DStreamingTerrain(long seed, float tileWidth, int steps, float roughness, float initialAmplitude, Color shadeColor, float seaLevel, int seaColorDeep, int seaColorShallow, float ambientLight) {
+		this.seed = seed;
+		this.tileWidth = tileWidth;
+		this.steps = steps;
+		this.roughness = roughness;
+		this.initialAmplitude = initialAmplitude;
+		this.shadeColor = shadeColor;
+		this.seaLevel = seaLevel;
+		this.seaColorDeep = seaColorDeep;
+		this.seaColorShallow = seaColorShallow;
+		this.ambientLight = ambientLight;
+	}
+
+	/**
+	 * Requests the tiles around the given location, makes finished tiles visible and drops tiles beyond the maximum tile count.
+	 * @param x the x coordinate of the camera
+	 * @param y the y coordinate of the camera
+	 */
+	public void update(float x, float y) {
+		if(closed){
+			throw new IllegalStateException("Streaming terrain has been closed");
+		}
+		startGenerators();
+		int tileX = getTileIndex(x);
+		int tileY = getTileIndex(y);
+		synchronized (this) {
+			updateCount++;
+			Tile finished;
+			while((finished = finishedTiles.poll()) != null){
+				tiles.put(finished.key, finished);
+				visibleTilesChanged = true;
+			}
+			if(tileX != centerTileX || tileY != centerTileY || visibleTilesChanged || updateCount >= nextRetryUpdate){
+				centerTileX = tileX;
+				centerTileY = tileY;
+				updateWantedTiles();
+			}
+			// touch the tiles within the load radius, so that the least recently used ones are far away
+			for(int i=tileX-loadRadius; i<=tileX+loadRadius; i++){
+				for(int j=tileY-loadRadius; j<=tileY+loadRadius; j++){
+					tiles.get(getKey(i, j));
+				}
+			}
+			Iterator<Tile> leastRecentlyUsed = tiles.values().iterator();
+			while(tiles.size() > maxTileCount){
+				residentTiles.remove(leastRecentlyUsed.next().key);
+				leastRecentlyUsed.remove();
+				visibleTilesChanged = true;
+			}
+			scheduleGenerations();
+			if(visibleTilesChanged){
+				updateVisibleContextPools();
+				visibleTilesChanged = false;
+			}
+		}
+	}
+
+	/**
+	 * Lists the tiles within the load radius that are neither visible nor being generated nor waiting to be retried, nearest first
+	 */
+	private void updateWantedTiles() {
+		wantedTiles.clear();
+		nextRetryUpdate = Long.MAX_VALUE;
+		for(int i=centerTileX-loadRadius; i<=centerTileX+loadRadius; i++){
+			for(int j=centerTileY-loadRadius; j<=centerTileY+loadRadius; j++){
+				long key = getKey(i, j);
+				if(tiles.containsKey(key) || generatingTiles.contains(key)){
+					continue;
+				}
+				TileFailure failure = failedTiles.get(key);
+				if(failure != null && failure.retryUpdate > updateCount){
+					nextRetryUpdate = Math.min(nextRetryUpdate, failure.retryUpdate);
+					continue;
+				}
+				wantedTiles.add(key);
+			}
+		}
+		Collections.sort(wantedTiles, new Comparator<Long>() {
+			@Override
+			public int compare(Long a, Long b) {
+				return Integer.compare(getTileDistance(a), getTileDistance(b));
+			}
+		});
+	}
+
+	private int getTileDistance(long key) {
+		return Math.max(Math.abs(getTileX(key) - centerTileX), Math.abs(getTileY(key) - centerTileY));
+	}
+
+	/**
+	 * Hands the nearest wanted tiles to idle generator threads, leaving out tiles next to a tile being generated
+	 */
+	private synchronized void scheduleGenerations() {
+		Iterator<Long> wanted = wantedTiles.iterator();
+		while(generatingTiles.size() < generatorThreadCount && wanted.hasNext()){
+			long key = wanted.next();
+			int tileX = getTileX(key);
+			int tileY = getTileY(key);
+			if(tiles.containsKey(key) || isNextToGeneratingTile(tileX, tileY)){
+				continue;
+			}
+			wanted.remove();
+			generatingTiles.add(key);
+			// the heights of the neighbours as they are now, indexed by (dx+1)*3 + (dy+1)
+			final float[][][] neighbourHeights = new float[9][][];
+			for(int dx=-1; dx<=1; dx++){
+				for(int dy=-1; dy<=1; dy++){
+					Tile neighbour = findTile(tileX + dx, tileY + dy);
+					neighbourHeights[(dx+1)*3 + (dy+1)] = neighbour == null ? null : neighbour.heights;
+				}
+			}
+			final long tileKey = key;
+			generators.execute(new Runnable() {
+				@Override
+				public void run() {
+					generate(tileKey, neighbourHeights);
+				}
+			});
+		}
+	}
+
+	private boolean isNextToGeneratingTile(int tileX, int tileY) {
+		for(int dx=-1; dx<=1; dx++){
+			for(int dy=-1; dy<=1; dy++){
+				if(generatingTiles.contains(getKey(tileX + dx, tileY + dy))){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the visible or finished tile, or null if there is none
+	 */
+	private Tile findTile(int tileX, int tileY) {
+		return residentTiles.get(getKey(tileX, tileY));
+	}
+
+	private void generate(long key, float[][][] neighbourHeights) {
+		Tile tile = null;
+		Throwable error = null;
+		try {
+			if(!closed){
+				tile = createTile(key, neighbourHeights);
+			}
+		} catch (Throwable e) {
+			error = e;
+		} finally {
+			synchronized (this) {
+				generatingTiles.remove(key);
+				if(tile != null){
+					finishedTiles.offer(tile);
+					residentTiles.put(key, tile);
+					failedTiles.remove(key);
+				} else if(error != null){
+					recordFailure(key, error);
+				}
+				if(!closed){
+					scheduleGenerations();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps the error and puts off requesting the tile again, for twice as many updates as after the previous failure
+	 */
+	private void recordFailure(long key, Throwable error) {
+		TileFailure previous = failedTiles.get(key);
+		int attemptCount = previous == null ? 1 : previous.attemptCount + 1;
+		long delay = Math.min(MAX_RETRY_DELAY, (long)FIRST_RETRY_DELAY << Math.min(attemptCount - 1, 30));
+		TileFailure failure = new TileFailure(error, attemptCount, updateCount + delay);
+		failedTiles.put(key, failure);
+		nextRetryUpdate = Math.min(nextRetryUpdate, failure.retryUpdate);
+	}
+
+	private Tile createTile(long key, float[][][] neighbourHeights) {
+		int tileX = getTileX(key);
+		int tileY = getTileY(key);
+		MJ3DDiamondSquareTerrain terrain = new MJ3DDiamondSquareTerrain(getTileSeed(tileX, tileY), tileWidth, steps, roughness, initialAmplitude,
+				shadeColor, seaLevel, seaColorDeep, seaColorShallow, ambientLight);
+		preSeedEdges(terrain, neighbourHeights);
+		terrain.createHeights(false);
+		// a mesh leaves no point or triad objects behind for the garbage collector to trace while the tile is visible
+		MJ3DMesh mesh = terrain.createMesh();
+		placeMesh(mesh, tileX, tileY);
+		MJ3DMap map = newMapBuilder().addObject(mesh).build();
+		MJ3DRenderContextPool contextPool = new MJ3DRenderContextPool(map);
+		// allocate the render context here rather than in the first frame showing the tile
+		contextPool.preallocate(1);
+		return new Tile(key, terrain.getHeights(), map, contextPool);
+	}
+
+	/**
+	 * Moves the mesh of a tile to its place. Each coordinate is computed from the index of its grid line across all tiles
+	 * instead of adding the offset of the tile, so neighbouring tiles get bit-identical coordinates along their shared edges.
+	 */
+	private void placeMesh(MJ3DMesh mesh, int tileX, int tileY) {
+		float[] positions = mesh.getPositions();
+		int rows = mesh.getGridSize();
+		long cells = rows - 1;
+		double cellWidth = tileWidth / cells;
+		for(int r=0; r<rows; r++){
+			float x = (float)((tileX * cells + r) * cellWidth);
+			for(int c=0; c<rows; c++){
+				int vertex = r * rows + c;
+				positions[3*vertex] = x;
+				positions[3*vertex+1] = (float)((tileY * cells + c) * cellWidth);
+			}
+		}
+	}
+
+	/**
+	 * Copies the shared edges and corners of the neighbours into the new terrain. Rows run along x and columns along y,
+	 * so the last row of the western neighbour (x-1) is the first row of the new tile.
+	 */
+	private static void preSeedEdges(MJ3DDiamondSquareTerrain terrain, float[][][] neighbourHeights) {
+		int last = terrain.getHeights().length - 1;
+		float[][] previousX = neighbourHeights[0*3 + 1];
+		float[][] nextX = neighbourHeights[2*3 + 1];
+		float[][] previousY = neighbourHeights[1*3 + 0];
+		float[][] nextY = neighbourHeights[1*3 + 2];
+		for(int i=0; i<=last; i++){
+			if(previousX != null)
+				terrain.preSeed(0, i, previousX[last][i]);
+			if(nextX != null)
+				terrain.preSeed(last, i, nextX[0][i]);
+			if(previousY != null)
+				terrain.preSeed(i, 0, previousY[i][last]);
+			if(nextY != null)
+				terrain.preSeed(i, last, nextY[i][0]);
+		}
+		// corners only shared with a diagonal neighbour
+		if(neighbourHeights[0] != null)
+			terrain.preSeed(0, 0, neighbourHeights[0][last][last]);
+		if(neighbourHeights[2] != null)
+			terrain.preSeed(0, last, neighbourHeights[2][last][0]);
+		if(neighbourHeights[6] != null)
+			terrain.preSeed(last, 0, neighbourHeights[6][0][last]);
+		if(neighbourHeights[8] != null)
+			terrain.preSeed(last, last, neighbourHeights[8][0][0]);
+	}
+
+	private MJ3DMapBuilder newMapBuilder() {
+		return MJ3DMapBuilder.newBuilder().setBackgroundColor(backgroundColor).setFoggy(foggy)
+				.setTerrainLevelOfDetail(terrainLevelOfDetail).setTerrainBorderStitching(true);
+	}
+
+	private long getTileSeed(int tileX, int tileY) {
+		return seed ^ (tileX * 0x9E3779B97F4A7C15L) ^ (tileY * 0xC2B2AE3D27D4EB4FL);
+	}
+
+	private void updateVisibleContextPools() {
+		List<Tile> visibleTiles = new ArrayList<Tile>(tiles.values());
+		// nearest first, so that occlusion culling can skip what nearer tiles hide
+		Collections.sort(visibleTiles, new Comparator<Tile>() {
+			@Override
+			public int compare(Tile a, Tile b) {
+				return Integer.compare(getTileDistance(a.key), getTileDistance(b.key));
+			}
+		});
+		List<MJ3DRenderContextPool> contextPools = new ArrayList<MJ3DRenderContextPool>(visibleTiles.size());
+		for(Tile tile : visibleTiles){
+			contextPools.add(tile.contextPool);
+		}
+		visibleContextPools = Collections.unmodifiableList(contextPools);
+	}
+
+	private synchronized void startGenerators() {
+		if(generators != null){
+			return;
+		}
+		generators = Executors.newFixedThreadPool(generatorThreadCount, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "MJ3D terrain generator");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	private int getTileIndex(float coordinate) {
+		return (int)Math.floor(coordinate / tileWidth);
+	}
+
+	private static long getKey(int tileX, int tileY) {
+		return ((long)tileX << 32) | (tileY & 0xffffffffL);
+	}
+
+	private static int getTileX(long key) {
+		return (int)(key >> 32);
+	}
+
+	private static int getTileY(long key) {
+		return (int)key;
+	}
+
+	/**
+	 * @return the render context pools of the visible tiles, nearest first, to be passed to
+	 * {@link de.rochefort.mj3d.view.MJ3DCamera#paintImage(de.rochefort.mj3d.view.ZBuffer, List, float, float, float, int, int)}.
+	 * The list is an unmodifiable snapshot: {@link #update(float, float)} does not change it, but creates a new one 
+	 * whenever the visible tiles change, so it may be rendered from while the next update runs.
+	 */
+	public List<MJ3DRenderContextPool> getVisibleContextPools() {
+		return visibleContextPools;
+	}
+
+	/**
+	 * @return the map of the visible tile containing the location, or null if that tile is not visible
+	 */
+	public synchronized MJ3DMap getTileMap(float x, float y) {
+		Tile tile = findTile(getTileIndex(x), getTileIndex(y));
+		return tile == null || !tiles.containsKey(tile.key) ? null : tile.map;
+	}
+
+	/**
+	 * @return an empty map with the background color and fog of the tiles, to create the camera rendering the tiles with
+	 */
+	public synchronized MJ3DMap getBaseMap() {
+		if(baseMap == null){
+			baseMap = newMapBuilder().build();
+		}
+		return baseMap;
+	}
+
+	public synchronized int getVisibleTileCount() {
+		return tiles.size();
+	}
+
+	public synchronized int getGeneratingTileCount() {
+		return generatingTiles.size();
+	}
+
+	/**
+	 * @return the error the last generation of the tile containing the location failed with, 
+	 * or null if the tile has not failed since it was last generated successfully
+	 */
+	public synchronized Throwable getTileFailure(float x, float y) {
+		TileFailure failure = failedTiles.get(getKey(getTileIndex(x), getTileIndex(y)));
+		return failure == null ? null : failure.error;
+	}
+
+	/**
+	 * @return the number of tiles whose last generation failed
+	 */
+	public synchronized int getFailedTileCount() {
+		return failedTiles.size();
+	}
+
+	public float getTileWidth() {
+		return tileWidth;
+	}
+
+	/**
+	 * @param backgroundColor the background color of all tiles, to be set before the first update
+	 */
+	public void setBackgroundColor(Color backgroundColor) {
+		this.backgroundColor = backgroundColor;
+	}
+
+	/**
+	 * @param foggy whether the tiles fade into the background color, to be set before the first update
+	 */
+	public void setFoggy(boolean foggy) {
+		this.foggy = foggy;
+	}
+
+	/**
+	 * @param terrainLevelOfDetail whether the tiles are rendered with level of detail, stitched along their edges, 
+	 * to be set before the first update
+	 */
+	public void setTerrainLevelOfDetail(boolean terrainLevelOfDetail) {
+		this.terrainLevelOfDetail = terrainLevelOfDetail;
+	}
+
+	/**
+	 * Sets how many tiles around the camera are kept and how many tiles are kept at most.
+	 * Tiles within the load radius are never dropped, so the maximum must at least cover them.
+	 * Tiles beyond it but within the maximum tile count stay visible until they are the least recently used ones.
+	 * @param loadRadius the tiles up to this number of tiles away from the tile of the camera in x and y are loaded
+	 * @param maxTileCount at least (2*loadRadius+1)^2
+	 */
+	public synchronized void setLoadRadius(int loadRadius, int maxTileCount) {
+		if(loadRadius < 0){
+			throw new IllegalArgumentException("Load radius must not be negative but was "+loadRadius);
+		}
+		int loadedTileCount = (2*loadRadius + 1) * (2*loadRadius + 1);
+		if(maxTileCount < loadedTileCount){
+			throw new IllegalArgumentException("Max tile count must be at least "+loadedTileCount+" for load radius "+loadRadius+" but was "+maxTileCount);
+		}
+		this.loadRadius = loadRadius;
+		this.maxTileCount = maxTileCount;
+		visibleTilesChanged = true;
+	}
+
+	public int getLoadRadius() {
+		return loadRadius;
+	}
+
+	public int getMaxTileCount() {
+		return maxTileCount;
+	}
+
+	/**
+	 * @param generatorThreadCount the number of background threads generating tiles, to be set before the first update
+	 */
+	public synchronized void setGeneratorThreadCount(int generatorThreadCount) {
+		if(generatorThreadCount < 1){
+			throw new IllegalArgumentException("Generator thread count must be positive but was "+generatorThreadCount);
+		}
+		if(generators != null){
+			throw new IllegalStateException("Generator threads have already been started");
+		}
+		this.generatorThreadCount = generatorThreadCount;
+	}
+
+	public int getGeneratorThreadCount() {
+		return generatorThreadCount;
+	}
+
+	/**
+	 * Stops the generator threads. Tiles being generated are discarded.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if(generators != null){
+			generators.shutdownNow();
+		}
+	}
+
+	private static class TileFailure {
+		private final Throwable error;
+		private final int attemptCount;
+		private final long retryUpdate;
+
+		private TileFailure(Throwable error, int attemptCount, long retryUpdate) {
+			this.error = error;
+			this.attemptCount = attemptCount;
+			this.retryUpdate = retryUpdate;
+		}
+	}
+
+	private static class Tile {
+		private final long key;
+		private final float[][] heights;
+		private final MJ3DMap map;
+		private final MJ3DRenderContextPool contextPool;
+
+		private Tile(long key, float[][] heights, MJ3DMap map, MJ3DRenderContextPool contextPool) {
+			this.key = key;
+			this.heights = heights;
+			this.map = map;
+			this.contextPool = contextPool;
+		}
+	}
+}
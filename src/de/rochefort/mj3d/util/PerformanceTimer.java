@@ -7,35 +7,49 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Measures the time of a frame and its parts. The times are kept per thread, so frames rendered
+ * concurrently are measured independently.
+ */
 public class PerformanceTimer {
-	private static Map<String, Long> times = new HashMap<String, Long>();
-	private static Long startTime;
-	private static Long lastStoppedTime;
+	private static final ThreadLocal<Timing> timing = new ThreadLocal<Timing>() {
+		@Override
+		protected Timing initialValue() {
+			return new Timing();
+		}
+	};
 	private static final boolean active = false;
+	private static volatile boolean reporting = true;
 	public PerformanceTimer() {
 	}
 
 	public static void start(){
-		startTime = System.currentTimeMillis();
-		lastStoppedTime = System.currentTimeMillis();
-		times.clear();
+		Timing current = timing.get();
+		current.startTime = System.currentTimeMillis();
+		current.lastStoppedTime = System.currentTimeMillis();
+		current.times.clear();
 	}
 	
 	public static void stopInterimTime(String refName){
 		if(active){
+			Map<String, Long> times = timing.get().times;
 			long now = System.currentTimeMillis();
-			long delta = now - lastStoppedTime;
+			long delta = now - timing.get().lastStoppedTime;
 			if(times.containsKey(refName)){
 				delta += times.get(refName);
 			}
 			times.put(refName, delta);
-			lastStoppedTime = now;
+			timing.get().lastStoppedTime = now;
 		}
 	}
 	
 	public static void stopAndPrintReport(){
+		if(!reporting){
+			return;
+		}
+		final Map<String, Long> times = timing.get().times;
 		long now = System.currentTimeMillis();
-		long delta = now - startTime;
+		long delta = now - timing.get().startTime;
 		System.out.println("Total Time used: "+delta+" ms");
 		List<String> keyset = new ArrayList<String>(times.keySet());
 		Collections.sort(keyset, new Comparator<String>() {
@@ -59,4 +73,18 @@ public class PerformanceTimer {
 			System.out.println("Time lost: "+delta+" ms");
 		}
 	}
+
+	/**
+	 * Enables or disables the reports printed at the end of each frame, e.g. to keep the output of benchmarks readable
+	 * @param reporting
+	 */
+	public static void setReporting(boolean reporting) {
+		PerformanceTimer.reporting = reporting;
+	}
+
+	private static class Timing {
+		private final Map<String, Long> times = new HashMap<String, Long>();
+		private long startTime;
+		private long lastStoppedTime;
+	}
 }
@@ -54,6 +54,49 @@ public class ColorBlender {
 	            (Yb & 0xff) ;
 	}
 	
+	/**
+	 * Blends arrays of colors pairwise, see {@link #blendRGB(int, int, float)}.
+	 * 
+	 * @param colorsA ARGB colors at ratio 0
+	 * @param colorsB ARGB colors at ratio 1
+	 * @param ratios the ratio for each pair
+	 * @param results receives the blended colors
+	 * @param offset the index of the first element to blend in all arrays
+	 * @param count the number of colors to blend
+	 */
+	public static void blendRGB(int[] colorsA, int[] colorsB, float[] ratios, int[] results, int offset, int count) {
+		for(int i = offset; i < offset + count; i++){
+			results[i] = blendRGB(colorsA[i], colorsB[i], ratios[i]);
+		}
+	}
+	
+	/**
+	 * Fills an array with colors stepping linearly from colorA towards colorB, 
+	 * using fixed point deltas per channel that are set up only once.
+	 * 
+	 * @param colorA ARGB color at ratio 0
+	 * @param colorB ARGB color at ratio 1
+	 * @param ratio the ratio of the first color to write
+	 * @param ratioStep the change of the ratio from one color to the next
+	 * @param results receives the interpolated colors
+	 * @param offset the index of the first color to write
+	 * @param count the number of colors to write
+	 */
+	public static void interpolateRGB(int colorA, int colorB, float ratio, float ratioStep, int[] results, int offset, int count) {
+		int red = ColorGradient.channel(colorA, colorB, 16, ratio);
+		int green = ColorGradient.channel(colorA, colorB, 8, ratio);
+		int blue = ColorGradient.channel(colorA, colorB, 0, ratio);
+		int redStep = ColorGradient.channelStep(colorA, colorB, 16, ratioStep);
+		int greenStep = ColorGradient.channelStep(colorA, colorB, 8, ratioStep);
+		int blueStep = ColorGradient.channelStep(colorA, colorB, 0, ratioStep);
+		for(int i = offset; i < offset + count; i++){
+			results[i] = ColorGradient.pack(red, green, blue);
+			red += redStep;
+			green += greenStep;
+			blue += blueStep;
+		}
+	}
+	
 	public static Color scaleColor(Color sourceColor, float scaleFactor){
 		int newRed =   (int)(sourceColor.getRed()*scaleFactor);
 		int newGreen = (int)(sourceColor.getGreen()*scaleFactor);
@@ -61,4 +104,14 @@ public class ColorBlender {
 		return new Color(newRed, newGreen, newBlue);
 	}
 
+	/**
+	 * Scales an RGB color like {@link #scaleColor(Color, float)} without creating a {@link Color}
+	 */
+	public static int scaleRGB(int sourceColor, float scaleFactor){
+		int newRed =   (int)(((sourceColor >> 16) & 0xff)*scaleFactor);
+		int newGreen = (int)(((sourceColor >> 8) & 0xff)*scaleFactor);
+		int newBlue  = (int)((sourceColor & 0xff)*scaleFactor);
+		return 0xff000000 | ((newRed << 16) & 0xff0000) | ((newGreen << 8) & 0xff00) | (newBlue & 0xff);
+	}
+
 }
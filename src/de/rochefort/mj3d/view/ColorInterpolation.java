@@ -0,0 +1,13 @@
+package de.rochefort.mj3d.view;
+
+public enum ColorInterpolation {
+	/**
+	 * Blends the vertex colors anew for every pixel and every scanline end, using floating point ratios.
+	 */
+	FLOAT, 
+	/**
+	 * Sets up fixed point color deltas once per triad edge and once per span and adds them per scanline and per pixel.
+	 * Since the channels are rounded instead of truncated, results may differ slightly from {@link #FLOAT}.
+	 */
+	FIXED_POINT_INCREMENTAL
+}
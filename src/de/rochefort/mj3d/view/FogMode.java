@@ -0,0 +1,14 @@
+package de.rochefort.mj3d.view;
+
+public enum FogMode {
+	/**
+	 * Blends the colors of the triad vertices with the background according to their distances 
+	 * and interpolates the results across the triad.
+	 */
+	PER_VERTEX, 
+	/**
+	 * Blends every pixel with the background according to its interpolated distance, 
+	 * using a lookup table of quantized fog factors.
+	 */
+	PER_PIXEL
+}
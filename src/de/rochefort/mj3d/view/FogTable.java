@@ -0,0 +1,54 @@
+package de.rochefort.mj3d.view;
+
+/**
+ * Lookup table for applying linear distance fog per pixel. Distances are quantized into {@link #LEVELS} levels.
+ * For each level, the table holds the weight of the original color and the premultiplied background color,
+ * so fogging a pixel takes one lookup and two multiplications on packed channels.
+ * The table is only rebuilt if the background color or the maximum distance change.
+ */
+final class FogTable {
+	static final int LEVELS = 256;
+	private final int[] colorWeights = new int[LEVELS];
+	private final int[] backgroundRedBlue = new int[LEVELS];
+	private final int[] backgroundGreen = new int[LEVELS];
+	private int backgroundColor;
+	private float maxDistance = Float.NaN;
+	private float levelsPerDistance;
+
+	/**
+	 * @param backgroundColor
+	 * @param maxDistance the distance at which everything fades into the background color
+	 * @return true if the table had to be rebuilt
+	 */
+	boolean update(int backgroundColor, float maxDistance) {
+		if(backgroundColor == this.backgroundColor && maxDistance == this.maxDistance){
+			return false;
+		}
+		this.backgroundColor = backgroundColor;
+		this.maxDistance = maxDistance;
+		levelsPerDistance = LEVELS / maxDistance;
+		for(int level=0; level<LEVELS; level++){
+			// same ratio as the per vertex fog, taken at the center of the level
+			float ratio = 1f - (level + 0.5f) / LEVELS;
+			int weight = Math.round(256 * ratio);
+			colorWeights[level] = weight;
+			// the added halves round each channel to the nearest integer
+			backgroundRedBlue[level] = (backgroundColor & 0xff00ff) * (256 - weight) + 0x800080;
+			backgroundGreen[level] = (backgroundColor & 0xff00) * (256 - weight) + 0x8000;
+		}
+		return true;
+	}
+
+	int apply(int color, float distance) {
+		int level = (int)(distance * levelsPerDistance);
+		if(level < 0){
+			level = 0;
+		} else if(level >= LEVELS){
+			level = LEVELS - 1;
+		}
+		int weight = colorWeights[level];
+		return 0xff000000 |
+				((((color & 0xff00ff) * weight + backgroundRedBlue[level]) >>> 8) & 0xff00ff) |
+				((((color & 0xff00) * weight + backgroundGreen[level]) >>> 8) & 0xff00);
+	}
+}
@@ -1,118 +1,133 @@
 package de.rochefort.mj3d.view;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import de.rochefort.mj3d.math.MJ3DMatrix;
 import de.rochefort.mj3d.math.MJ3DVector;
 import de.rochefort.mj3d.math.Quaternion;
 import de.rochefort.mj3d.objects.maps.MJ3DMap;
+import de.rochefort.mj3d.objects.maps.MJ3DRayHit;
 import de.rochefort.mj3d.util.PerformanceTimer;
 
-public class MJ3DCamera implements MJ3DViewingPosition {
+public class MJ3DCamera implements MJ3DViewingPosition, AutoCloseable {
 	private final MJ3DMap map;
+	private final MJ3DRenderContextPool contextPool;
 	private MJ3DVector position = new MJ3DVector();
 	private MJ3DVector localX = MJ3DVector.X_UNIT_VECTOR;
 	private MJ3DVector localY = MJ3DVector.Y_UNIT_VECTOR;
 	private MJ3DVector localZ = MJ3DVector.Z_UNIT_VECTOR;
 	private int maxTriadCount = Integer.MAX_VALUE;
 	private float maxTriadDistance = Float.MAX_VALUE;
-	private MJ3DVector[] points;
-	private float[] pointDistances;
-	private float[] cachedPointTransformationsX;
-	private float[] cachedPointTransformationsY;
-	private float[] cachedPointTransformationsZ;
-	private int[] cachedPointProjectionsX;
-	private int[] cachedPointProjectionsY;
+	private float levelOfDetailTolerance = 4f;
+	private ForkJoinPool rasterPool = null;
+	private int rasterizedTriadCount;
+	private int droppedTriadCount;
+	private boolean occlusionCulling = false;
 
-	private float tolerance = 1e-14f;
 	private Quaternion orientation = new Quaternion();
 
+	/**
+	 * Creates a camera with a render context pool of its own
+	 * @param map
+	 */
 	public MJ3DCamera(MJ3DMap map) {
-		this.map = map;
-		pointDistances = new float[map.getPointsCount()];
-		cachedPointTransformationsX = new float[map.getPointsCount()]; 
-		cachedPointTransformationsY = new float[map.getPointsCount()]; 
-		cachedPointTransformationsZ = new float[map.getPointsCount()]; 
-		cachedPointProjectionsX = new int[map.getPointsCount()]; 
-		cachedPointProjectionsY = new int[map.getPointsCount()]; 
-		clearCacheArrays();
+		this(new MJ3DRenderContextPool(map));
+	}
+
+	/**
+	 * Creates a camera rendering the map of the given pool with the contexts of that pool, 
+	 * so that the point caches sized to the map are shared with the other cameras using the pool
+	 * @param contextPool
+	 */
+	public MJ3DCamera(MJ3DRenderContextPool contextPool) {
+		this.map = contextPool.getMap();
+		this.contextPool = contextPool;
 		orientation.normalizeIfNeeded();
 	}
 	
-	private void clearCacheArrays(){
-		for(int i=0; i<map.getPointsCount(); i++){
-			pointDistances[i] 				= Float.MIN_VALUE;
-			cachedPointTransformationsX[i] 	= Float.MIN_VALUE;
-			cachedPointTransformationsY[i] 	= Float.MIN_VALUE;
-			cachedPointTransformationsZ[i] 	= Float.MIN_VALUE;
-			cachedPointProjectionsX[i] 		= Integer.MIN_VALUE;
-			cachedPointProjectionsY[i] 		= Integer.MIN_VALUE;
-		}
-	}
-
+	/**
+	 * Renders the map as seen from this camera into the z-buffer, using a render context borrowed from the pool 
+	 * of the camera for the duration of the frame. Different cameras may render concurrently, a single camera must not.
+	 * @param zBuffer
+	 * @param ex
+	 * @param ey
+	 * @param ez
+	 * @param viewPortWidth
+	 * @param viewPortHeight
+	 */
 	public void paintImage(ZBuffer zBuffer, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) {
 		PerformanceTimer.start();
-		MJ3DMatrix rotationMatrix = new MJ3DMatrix(orientation);
-
-		MJ3DVector[] points = map.getPointsArray();
-		int[][] triadPoints = map.getTriadPointsArray();
-		int[] pointColors = map.getPointColorsArray();
-		clearCacheArrays();
-		zBuffer.setBackgroundColor(map.getBackgroundColor(this));
-		
-//		PerformanceTimer.stopInterimTime("Initial cleanup");
-		recalculatePointDistances(points);
-
-//		PerformanceTimer.stopInterimTime("Point Distance Precomputation");
-		recalculatePointTransformations(points, rotationMatrix);
-//		PerformanceTimer.stopInterimTime("Transforming points ");
-		
-		recalculate2DProjections(ex, ey, ez);
-//		PerformanceTimer.stopInterimTime("Projecting points ");
-		int[] x = new int[3];
-		int[] y = new int[3];
-		int[] c = new int[3];
-		for(int triadPointIndexArray=0; triadPointIndexArray<triadPoints.length; triadPointIndexArray++) {
-//			PerformanceTimer.stopInterimTime("Overhead in Triad Plotting Loop");
-//			PerformanceTimer.stopInterimTime("resetting polygon");
-			float [] distances = new float[3];
-			int[] triadPts = triadPoints[triadPointIndexArray];
-//			PerformanceTimer.stopInterimTime("Getting Triad Points");
-			boolean triadInvisible=false;
-			for(int triadPointIndex=0; triadPointIndex<triadPts.length; triadPointIndex++){
-				int pointIndex = triadPts[triadPointIndex];
-				if(pointDistances[pointIndex] > maxTriadDistance || cachedPointProjectionsX[pointIndex] == Integer.MIN_VALUE || cachedPointProjectionsY[pointIndex] == Integer.MIN_VALUE ){
-					triadInvisible = true;
-					break;
-				}
-				else{
-					distances[triadPointIndex] = pointDistances[pointIndex];
-					x[triadPointIndex] = cachedPointProjectionsX[pointIndex];
-					y[triadPointIndex] = cachedPointProjectionsY[pointIndex];
-					c[triadPointIndex] = pointColors[pointIndex];
-				}
-			}
-//			PerformanceTimer.stopInterimTime("Getting Triad Point distances and filling polygon");
-			if(triadInvisible){
-//				PerformanceTimer.stopInterimTime("Check visibility");
-				continue;
-			}
-//			PerformanceTimer.stopInterimTime("Check visibility");
-			try {
-//				for(int pc=0; pc<c.length; pc++){
-//					Color dummy = new Color(c[pc]);
-//					if(dummy.getGreen()==255)
-//						System.out.println("rgb: "+dummy.getRed()+" "+dummy.getGreen()+" "+dummy.getBlue());
-//				}
-				zBuffer.fillTriad(x, y, c, map.getBackgroundColor(this), distances, maxTriadDistance, map.isFoggy(), map.isWireframe());
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				break;
-			}
-//			PerformanceTimer.stopInterimTime("Paint z-buffer");
+		rasterizedTriadCount = 0;
+		droppedTriadCount = 0;
+		paintMap(contextPool, zBuffer, true, ex, ey, ez, viewPortWidth, viewPortHeight);
+		PerformanceTimer.stopAndPrintReport();
+	}
+	
+	/**
+	 * Renders several maps sharing one coordinate system into the z-buffer as seen from this camera, 
+	 * e.g. the tiles of a {@link de.rochefort.mj3d.objects.terrains.MJ3DStreamingTerrain}. 
+	 * The z-buffer is cleared once with the background color of the camera's own map, 
+	 * then the maps are rendered one after the other on top of each other, so the depth test sorts them out. 
+	 * Rendering them nearest first lets occlusion culling skip what nearer maps hide. 
+	 * The triad budget of the camera applies to all maps together.
+	 * @param zBuffer
+	 * @param contextPools the render context pools of the maps to render
+	 * @param ex
+	 * @param ey
+	 * @param ez
+	 * @param viewPortWidth
+	 * @param viewPortHeight
+	 */
+	public void paintImage(ZBuffer zBuffer, List<MJ3DRenderContextPool> contextPools, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) {
+		PerformanceTimer.start();
+		zBuffer.clear(map.getBackgroundColor(this));
+		rasterizedTriadCount = 0;
+		droppedTriadCount = 0;
+		for(MJ3DRenderContextPool pool : contextPools){
+			paintMap(pool, zBuffer, false, ex, ey, ez, viewPortWidth, viewPortHeight);
 		}
 		PerformanceTimer.stopAndPrintReport();
 	}
 	
+	private void paintMap(MJ3DRenderContextPool pool, ZBuffer zBuffer, boolean clear, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) {
+		MJ3DRenderContext context = pool.acquire();
+		try {
+			context.paintImage(this, zBuffer, clear, Math.max(0, maxTriadCount - rasterizedTriadCount), ex, ey, ez, viewPortWidth, viewPortHeight);
+			rasterizedTriadCount += context.getRasterizedTriadCount();
+			droppedTriadCount += context.getDroppedTriadCount();
+		} finally {
+			pool.release(context);
+		}
+	}
+	
+	/**
+	 * Finds the triad visible at a pixel of an image rendered with the given projection parameters, 
+	 * by casting a ray from the camera through the center of the pixel into the spatial index of the map.
+	 * Triads beyond the maximum triad distance are not hit, just like they are not rendered.
+	 * @param x the column of the pixel
+	 * @param y the row of the pixel
+	 * @param ex
+	 * @param ey
+	 * @param ez
+	 * @param hit receives the triad hit and the location of the hit in map coordinates, the distance is the one from the camera
+	 * @return true if a triad has been hit
+	 */
+	public boolean pick(int x, int y, float ex, float ey, float ez, MJ3DRayHit hit) {
+		// invert the projection screenX = ex*dy/dx - ey into a direction in camera coordinates
+		float cameraX = 1;
+		float cameraY = (x + 0.5f + ey) / ex;
+		float cameraZ = (y + 0.5f + ez) / ex;
+		// and rotate it back into map coordinates with the transposed rotation matrix
+		MJ3DMatrix rotationMatrix = new MJ3DMatrix(orientation);
+		float directionX = rotationMatrix.getValue(0, 0)*cameraX + rotationMatrix.getValue(1, 0)*cameraY + rotationMatrix.getValue(2, 0)*cameraZ;
+		float directionY = rotationMatrix.getValue(0, 1)*cameraX + rotationMatrix.getValue(1, 1)*cameraY + rotationMatrix.getValue(2, 1)*cameraZ;
+		float directionZ = rotationMatrix.getValue(0, 2)*cameraX + rotationMatrix.getValue(1, 2)*cameraY + rotationMatrix.getValue(2, 2)*cameraZ;
+		float length = (float)Math.sqrt(directionX*directionX + directionY*directionY + directionZ*directionZ);
+		return map.getSpatialIndex().intersectRay(getXPos(), getYPos(), getZPos(), 
+				directionX / length, directionY / length, directionZ / length, maxTriadDistance, hit);
+	}
+	
 //	public void paintImagePolygon(ZBuffer zBuffer, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) {
 //		PerformanceTimer.start();
 //		MJ3DMatrix rotationMatrix = new MJ3DMatrix(orientation);
@@ -164,47 +179,6 @@ public class MJ3DCamera implements MJ3DViewingPosition {
 //		PerformanceTimer.stopAndPrintReport();
 //	}
 //		
-	private void recalculatePointDistances(MJ3DVector[] points) {
-		for(int i=0; i<pointDistances.length; i++){
-			pointDistances[i]=points[i].add(position).getLength();
-		}
-	}
-	
-	private void recalculatePointTransformations(MJ3DVector[] points, MJ3DMatrix rotationMatrix) {
-		for(int i=0; i<pointDistances.length; i++){
-			if(pointDistances[i]>maxTriadDistance){
-				continue;
-			}
-			MJ3DVector pntRotated = points[i].add(position.getX(), position.getY(), position.getZ()).rotate(rotationMatrix);
-			cachedPointTransformationsX[i] = pntRotated.getX();
-			cachedPointTransformationsY[i] = pntRotated.getY();
-			cachedPointTransformationsZ[i] = pntRotated.getZ();
-		}
-	}
-	
-	private void recalculate2DProjections(float ex, float ey, float ez){
-		for(int i=0; i<pointDistances.length; i++){
-			if(pointDistances[i]>maxTriadDistance){
-				continue;
-			}
-			float dx = cachedPointTransformationsX[i];
-			if(dx < tolerance){
-				continue;
-			}
-			float dy = cachedPointTransformationsY[i];
-			float dz = cachedPointTransformationsZ[i];
-			
-			if (dx != 0) {
-				cachedPointProjectionsX[i] = (int) (ex * dy / dx - ey);
-				cachedPointProjectionsY[i] = (int) (ex * dz / dx - ez);
-			} else {
-				cachedPointProjectionsX[i] = (int) (dy - ey);
-				cachedPointProjectionsY[i] = (int) (dz - ez);
-			}
-		}
-		
-	}
-
 	public float getXPos() {
 		return -position.getX();
 	}
@@ -220,6 +194,41 @@ public class MJ3DCamera implements MJ3DViewingPosition {
 	public void setPos(MJ3DVector position){
 		this.position = position;
 	}
+	
+	/**
+	 * @return the negated camera location, which translates map coordinates into camera coordinates
+	 */
+	MJ3DVector getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Moves the camera to the given location and orientation at once.
+	 * @param location the camera location in map coordinates, as returned by {@link #getXPos()}, {@link #getYPos()} and {@link #getZPos()}
+	 * @param orientation
+	 */
+	public void setPose(MJ3DVector location, Quaternion orientation){
+		this.position = location.multiply(-1);
+		this.orientation = new Quaternion(orientation.getW(), orientation.getX(), orientation.getY(), orientation.getZ());
+		this.orientation.normalizeIfNeeded();
+		updateLocalCoordinateSystem();
+	}
+	
+	/**
+	 * Moves the camera to the given location and orientation at once. The orientation is the one reached by 
+	 * {@link #incrementYaw(float)}, {@link #incrementPitch(float)} and {@link #incrementRoll(float)} in this order 
+	 * from the initial orientation, looking along the x axis.
+	 * @param location the camera location in map coordinates
+	 * @param yaw
+	 * @param pitch
+	 * @param roll
+	 */
+	public void setPose(MJ3DVector location, float yaw, float pitch, float roll){
+		setPose(location, new Quaternion());
+		incrementYaw(yaw);
+		incrementPitch(pitch);
+		incrementRoll(roll);
+	}
 
 	public void incrementX(float delta) {
 		this.position = this.position.add(localX.multiply(-delta));
@@ -309,6 +318,12 @@ public class MJ3DCamera implements MJ3DViewingPosition {
 //		System.out.println("New Local Coordinate System: X:"+localX+" / Y:"+localY+ " / Z:"+localZ);
 	}
 	
+	/**
+	 * Limits the number of triads rasterized per frame. If more triads are visible, the nearest ones are 
+	 * rasterized and the rest is dropped, see {@link #getDroppedTriadCount()}. 
+	 * With occlusion culling, the budget is filled batch by batch in front to back order.
+	 * @param maxTriadCount
+	 */
 	public void setMaxTriadCount(int maxTriadCount) {
 		this.maxTriadCount = maxTriadCount;
 	}
@@ -317,6 +332,20 @@ public class MJ3DCamera implements MJ3DViewingPosition {
 		return maxTriadCount;
 	}
 	
+	/**
+	 * @return the number of triads rasterized in the last frame
+	 */
+	public int getRasterizedTriadCount() {
+		return rasterizedTriadCount;
+	}
+	
+	/**
+	 * @return the number of visible triads left out in the last frame because of the triad budget
+	 */
+	public int getDroppedTriadCount() {
+		return droppedTriadCount;
+	}
+	
 	public void setMaxTriadDistance(float maxTriadDistance) {
 		this.maxTriadDistance = maxTriadDistance;
 	}
@@ -324,4 +353,77 @@ public class MJ3DCamera implements MJ3DViewingPosition {
 	public float getMaxTriadDistance() {
 		return maxTriadDistance;
 	}
+	
+	/**
+	 * Sets the number of threads used to rasterize the triads of a frame. 
+	 * With more than one thread the screen is split into tiles that are rasterized concurrently on a 
+	 * {@link ForkJoinPool}. The resulting image is pixel-identical to the one rendered by a single thread.
+	 * The pool belongs to the camera, so close the camera to stop its threads.
+	 * @param rasterThreadCount the number of raster threads, 1 for serial rasterization
+	 */
+	public void setRasterThreadCount(int rasterThreadCount) {
+		if(rasterThreadCount < 1){
+			throw new IllegalArgumentException("Raster thread count must be positive but was "+rasterThreadCount);
+		}
+		if(rasterThreadCount == getRasterThreadCount()){
+			return;
+		}
+		shutdownRasterPool();
+		rasterPool = rasterThreadCount > 1 ? new ForkJoinPool(rasterThreadCount) : null;
+	}
+	
+	private void shutdownRasterPool() {
+		if(rasterPool != null){
+			rasterPool.shutdown();
+			rasterPool = null;
+		}
+	}
+	
+	/**
+	 * Stops the raster threads, see {@link #setRasterThreadCount(int)}. 
+	 * The camera stays usable and rasterizes on the rendering thread afterwards.
+	 */
+	@Override
+	public void close() {
+		shutdownRasterPool();
+	}
+	
+	public int getRasterThreadCount() {
+		return rasterPool == null ? 1 : rasterPool.getParallelism();
+	}
+	
+	ForkJoinPool getRasterPool() {
+		return rasterPool;
+	}
+	
+	public MJ3DRenderContextPool getContextPool() {
+		return contextPool;
+	}
+	
+	/**
+	 * Enables occlusion culling against the depth pyramid of the z-buffer. The map is then traversed front to back 
+	 * and rasterized in batches, and nodes and triads hidden behind the batches drawn so far are skipped.
+	 * @param occlusionCulling
+	 */
+	public void setOcclusionCulling(boolean occlusionCulling) {
+		this.occlusionCulling = occlusionCulling;
+	}
+	
+	public boolean isOcclusionCulling() {
+		return occlusionCulling;
+	}
+	
+	/**
+	 * Sets the largest screen space error in pixels accepted when choosing the resolution of terrain chunks 
+	 * rendered with level of detail. Larger values render fewer triads. The default of 4 pixels renders far fewer triads 
+	 * than full resolution; at 1 pixel, the fractal detail near the camera keeps most chunks at full resolution.
+	 * @param levelOfDetailTolerance
+	 */
+	public void setLevelOfDetailTolerance(float levelOfDetailTolerance) {
+		this.levelOfDetailTolerance = levelOfDetailTolerance;
+	}
+	
+	public float getLevelOfDetailTolerance() {
+		return levelOfDetailTolerance;
+	}
 }
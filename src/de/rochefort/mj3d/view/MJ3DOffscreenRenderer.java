@@ -0,0 +1,170 @@
+package de.rochefort.mj3d.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+import de.rochefort.mj3d.math.MJ3DVector;
+import de.rochefort.mj3d.math.Quaternion;
+import de.rochefort.mj3d.objects.maps.MJ3DMap;
+import de.rochefort.mj3d.objects.maps.MJ3DRayHit;
+
+/**
+ * Renders a map without any Swing components, e.g. for batch jobs or tests running with java.awt.headless=true.
+ * The image is rendered into a {@link ZBuffer}, which may wrap a caller supplied pixel array,
+ * and can be written as PNG afterwards. The camera is exposed for further settings like the maximum triad distance.
+ * Instances are not thread safe, but renderers sharing a {@link MJ3DRenderContextPool} may render concurrently.
+ * Close a renderer to stop the raster threads of its camera, if any have been set.
+ */
+public class MJ3DOffscreenRenderer implements AutoCloseable {
+	public static final float DEFAULT_FIELD_OF_VIEW = (float)Math.toRadians(70);
+	private final MJ3DCamera camera;
+	private ZBuffer zBuffer;
+	private float fieldOfView = DEFAULT_FIELD_OF_VIEW;
+
+	/**
+	 * Creates a renderer with its own z-buffer of the given size
+	 * @param map
+	 * @param width
+	 * @param height
+	 */
+	public MJ3DOffscreenRenderer(MJ3DMap map, int width, int height) {
+		this(map, new ZBuffer(width, height));
+	}
+
+	/**
+	 * Creates a renderer that renders into the given array, see {@link ZBuffer#ZBuffer(int[], int, int)}
+	 * @param map
+	 * @param pixels
+	 * @param width
+	 * @param height
+	 */
+	public MJ3DOffscreenRenderer(MJ3DMap map, int[] pixels, int width, int height) {
+		this(map, new ZBuffer(pixels, width, height));
+	}
+
+	/**
+	 * Creates a renderer that renders into the given z-buffer
+	 * @param map
+	 * @param zBuffer
+	 */
+	public MJ3DOffscreenRenderer(MJ3DMap map, ZBuffer zBuffer) {
+		this(new MJ3DRenderContextPool(map), zBuffer);
+	}
+
+	/**
+	 * Creates a renderer that renders into the given z-buffer with the render contexts of the given pool, 
+	 * so that several renderers over the same map can run in parallel without each holding its own point caches
+	 * @param contextPool
+	 * @param zBuffer
+	 */
+	public MJ3DOffscreenRenderer(MJ3DRenderContextPool contextPool, ZBuffer zBuffer) {
+		this.camera = new MJ3DCamera(contextPool);
+		this.zBuffer = zBuffer;
+	}
+
+	/**
+	 * Renders the map as seen from the given location and orientation.
+	 * @param location the camera location in map coordinates
+	 * @param orientation
+	 * @return the z-buffer holding the image
+	 */
+	public ZBuffer render(MJ3DVector location, Quaternion orientation) {
+		camera.setPose(location, orientation);
+		return render();
+	}
+
+	/**
+	 * Renders the map as seen from the given location, see {@link MJ3DCamera#setPose(MJ3DVector, float, float, float)}.
+	 * @param location the camera location in map coordinates
+	 * @param yaw
+	 * @param pitch
+	 * @param roll
+	 * @return the z-buffer holding the image
+	 */
+	public ZBuffer render(MJ3DVector location, float yaw, float pitch, float roll) {
+		camera.setPose(location, yaw, pitch, roll);
+		return render();
+	}
+
+	/**
+	 * Renders the map from the current pose of the camera.
+	 * @return the z-buffer holding the image
+	 */
+	public ZBuffer render() {
+		int width = zBuffer.getWidth();
+		int height = zBuffer.getHeight();
+		camera.paintImage(zBuffer, getEx(), -width/2f, -height/2f, width, height);
+		return zBuffer;
+	}
+
+	/**
+	 * Finds the triad visible at a pixel of the image rendered from the current pose, see {@link MJ3DCamera#pick(int, int, float, float, float, MJ3DRayHit)}
+	 * @param x
+	 * @param y
+	 * @param hit
+	 * @return true if a triad has been hit
+	 */
+	public boolean pick(int x, int y, MJ3DRayHit hit) {
+		return camera.pick(x, y, getEx(), -zBuffer.getWidth()/2f, -zBuffer.getHeight()/2f, hit);
+	}
+
+	private float getEx() {
+		return (zBuffer.getWidth()/2f) / (float)Math.tan(fieldOfView/2f);
+	}
+
+	public void writePng(File file) throws IOException {
+		if(!ImageIO.write(zBuffer.getBufferedImage(), "png", file)){
+			throw new IOException("No PNG writer available");
+		}
+	}
+
+	public void writePng(OutputStream outputStream) throws IOException {
+		if(!ImageIO.write(zBuffer.getBufferedImage(), "png", outputStream)){
+			throw new IOException("No PNG writer available");
+		}
+	}
+
+	public MJ3DCamera getCamera() {
+		return camera;
+	}
+
+	public ZBuffer getZBuffer() {
+		return zBuffer;
+	}
+
+	/**
+	 * Replaces the z-buffer to render into, e.g. to change the image size
+	 * @param zBuffer
+	 */
+	public void setZBuffer(ZBuffer zBuffer) {
+		this.zBuffer = zBuffer;
+	}
+
+	/**
+	 * Closes the camera, see {@link MJ3DCamera#close()}
+	 */
+	@Override
+	public void close() {
+		camera.close();
+	}
+
+	/**
+	 * @return the horizontal field of view in radians
+	 */
+	public float getFieldOfView() {
+		return fieldOfView;
+	}
+
+	/**
+	 * @param fieldOfView the horizontal field of view in radians, between 0 and pi exclusively
+	 */
+	public void setFieldOfView(float fieldOfView) {
+		if(!(fieldOfView > 0 && fieldOfView < Math.PI)){
+			throw new IllegalArgumentException("Field of view must be between 0 and pi but was "+fieldOfView);
+		}
+		this.fieldOfView = fieldOfView;
+	}
+}
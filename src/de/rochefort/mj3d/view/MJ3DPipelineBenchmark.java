@@ -0,0 +1,80 @@
+package de.rochefort.mj3d.view;
+
+import java.awt.Color;
+
+import de.rochefort.mj3d.math.MJ3DVector;
+import de.rochefort.mj3d.objects.maps.MJ3DMap;
+import de.rochefort.mj3d.objects.maps.MJ3DMapBuilder;
+import de.rochefort.mj3d.objects.terrains.MJ3DDiamondSquareTerrain;
+import de.rochefort.mj3d.util.PerformanceTimer;
+
+/**
+ * Compares the frame rate of a camera turning over a terrain when the geometry and raster stages of each frame
+ * run back to back with {@link MJ3DCamera#paintImage(ZBuffer, float, float, float, int, int)} and when they overlap
+ * in a {@link MJ3DRenderPipeline}. The pipeline can only be faster with at least two cores.
+ * Arguments: frames per round (default 100), terrain steps (default 8), number of pipeline slots (default 2),
+ * image width (default 640), image height (default 480)
+ */
+public class MJ3DPipelineBenchmark {
+	private static final int ROUNDS = 5;
+	private static final float TERRAIN_WIDTH = 1000f;
+
+	public static void main(String[] args) throws Exception {
+		int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int slotCount = args.length > 2 ? Integer.parseInt(args[2]) : MJ3DRenderPipeline.DEFAULT_SLOT_COUNT;
+		int width = args.length > 3 ? Integer.parseInt(args[3]) : 640;
+		int height = args.length > 4 ? Integer.parseInt(args[4]) : 480;
+
+		MJ3DDiamondSquareTerrain terrain = new MJ3DDiamondSquareTerrain(42L, TERRAIN_WIDTH, steps, 0.55f, 150f, new Color(60, 160, 60), 30f,
+				new Color(0, 0, 120).getRGB(), new Color(60, 120, 255).getRGB(), 0.3f);
+		terrain.create(false);
+		MJ3DMap map = MJ3DMapBuilder.newBuilder().setBackgroundColor(new Color(180, 200, 255)).addObject(terrain).build();
+		MJ3DCamera camera = new MJ3DCamera(map);
+		camera.setMaxTriadDistance(1500f);
+		float ex = (width / 2f) / (float)Math.tan(MJ3DOffscreenRenderer.DEFAULT_FIELD_OF_VIEW / 2);
+		float ey = -width / 2f;
+		float ez = -height / 2f;
+		ZBuffer[] zBuffers = new ZBuffer[slotCount];
+		for(int i=0; i<slotCount; i++){
+			zBuffers[i] = new ZBuffer(width, height);
+		}
+		PerformanceTimer.setReporting(false);
+		System.out.println(map.getPointsCount()+" points, "+map.getTriadCount()+" triads, "+slotCount+" slots, "
+				+Runtime.getRuntime().availableProcessors()+" cores");
+
+		MJ3DRenderPipeline pipeline = new MJ3DRenderPipeline(camera, slotCount);
+		try {
+			for(int round=0; round<ROUNDS; round++){
+				long start = System.nanoTime();
+				for(int frame=0; frame<frameCount; frame++){
+					setPose(camera, frame, frameCount);
+					camera.paintImage(zBuffers[0], ex, ey, ez, width, height);
+				}
+				double serialFramesPerSecond = frameCount * 1e9 / (System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for(int frame=0; frame<frameCount; frame++){
+					if(pipeline.getPendingFrameCount() == slotCount){
+						pipeline.takeFrame();
+					}
+					setPose(camera, frame, frameCount);
+					pipeline.submitFrame(zBuffers[frame % slotCount], ex, ey, ez, width, height);
+				}
+				while(pipeline.getPendingFrameCount() > 0){
+					pipeline.takeFrame();
+				}
+				double pipelinedFramesPerSecond = frameCount * 1e9 / (System.nanoTime() - start);
+				System.out.println(String.format("round %d: back to back %.1f frames/s, pipelined %.1f frames/s",
+						round, serialFramesPerSecond, pipelinedFramesPerSecond));
+			}
+		} finally {
+			pipeline.close();
+		}
+	}
+
+	private static void setPose(MJ3DCamera camera, int frame, int frameCount) {
+		float center = TERRAIN_WIDTH / 2;
+		camera.setPose(new MJ3DVector(center, center, -250f), (float)(2 * Math.PI * frame / frameCount), -0.35f, 0f);
+	}
+}
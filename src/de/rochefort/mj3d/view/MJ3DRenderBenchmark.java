@@ -0,0 +1,116 @@
+package de.rochefort.mj3d.view;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.rochefort.mj3d.math.MJ3DVector;
+import de.rochefort.mj3d.objects.maps.MJ3DMap;
+import de.rochefort.mj3d.objects.maps.MJ3DMapBuilder;
+import de.rochefort.mj3d.objects.terrains.MJ3DDiamondSquareTerrain;
+import de.rochefort.mj3d.util.PerformanceTimer;
+
+/**
+ * Measures the throughput of rendering many viewpoints of one shared map concurrently. Every viewpoint has a
+ * camera of its own, all cameras share one {@link MJ3DRenderContextPool}, and each frame is a task on a fixed thread pool,
+ * or on virtual threads if the runtime supports them and "virtual" is given as the thread count.
+ * The throughput is reported in frames per second in total and per core used.
+ * Arguments: number of viewpoints (default 16), number of threads or "virtual" (default: available processors),
+ * frames per viewpoint (default 10), terrain steps (default 8), image width (default 640), image height (default 480)
+ */
+public class MJ3DRenderBenchmark {
+	private static final int ROUNDS = 5;
+	private static final float TERRAIN_WIDTH = 1000f;
+
+	public static void main(String[] args) throws Exception {
+		int viewpointCount = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		boolean virtualThreads = args.length > 1 && args[1].equals("virtual");
+		int threadCount = args.length > 1 && !virtualThreads ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int framesPerViewpoint = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int steps = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		final int width = args.length > 4 ? Integer.parseInt(args[4]) : 640;
+		final int height = args.length > 5 ? Integer.parseInt(args[5]) : 480;
+
+		MJ3DDiamondSquareTerrain terrain = new MJ3DDiamondSquareTerrain(42L, TERRAIN_WIDTH, steps, 0.55f, 150f, new Color(60, 160, 60), 30f,
+				new Color(0, 0, 120).getRGB(), new Color(60, 120, 255).getRGB(), 0.3f);
+		terrain.create(false);
+		MJ3DMap map = MJ3DMapBuilder.newBuilder().setBackgroundColor(new Color(180, 200, 255)).addObject(terrain).build();
+		MJ3DRenderContextPool contextPool = new MJ3DRenderContextPool(map);
+		final MJ3DCamera[] cameras = new MJ3DCamera[viewpointCount];
+		for(int viewpoint=0; viewpoint<viewpointCount; viewpoint++){
+			// circle around the terrain, looking at its center
+			double angle = 2 * Math.PI * viewpoint / viewpointCount;
+			float center = TERRAIN_WIDTH / 2;
+			MJ3DVector location = new MJ3DVector(center + 0.7f * TERRAIN_WIDTH * (float)Math.cos(angle),
+					center + 0.7f * TERRAIN_WIDTH * (float)Math.sin(angle), -250f);
+			cameras[viewpoint] = new MJ3DCamera(contextPool);
+			cameras[viewpoint].setPose(location, (float)(angle + Math.PI), -0.35f, 0f);
+			cameras[viewpoint].setMaxTriadDistance(1500f);
+		}
+		final float ex = (width / 2f) / (float)Math.tan(MJ3DOffscreenRenderer.DEFAULT_FIELD_OF_VIEW / 2);
+		// every frame in progress needs an image of its own, but not every viewpoint
+		final ConcurrentLinkedQueue<ZBuffer> zBuffers = new ConcurrentLinkedQueue<ZBuffer>();
+		PerformanceTimer.setReporting(false);
+
+		ExecutorService executor = virtualThreads ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(threadCount);
+		if(executor == null){
+			System.out.println("Virtual threads not available, using "+threadCount+" platform threads");
+			virtualThreads = false;
+			executor = Executors.newFixedThreadPool(threadCount);
+		}
+		int coreCount = virtualThreads ? Runtime.getRuntime().availableProcessors() : Math.min(threadCount, Runtime.getRuntime().availableProcessors());
+		System.out.println(map.getPointsCount()+" points, "+map.getTriadCount()+" triads, "+viewpointCount+" viewpoints, "
+				+(virtualThreads ? "virtual threads" : threadCount+" threads")+", "+coreCount+" cores");
+		try {
+			for(int round=0; round<ROUNDS; round++){
+				List<Callable<Integer>> frames = new ArrayList<Callable<Integer>>();
+				for(int frame=0; frame<framesPerViewpoint; frame++){
+					for(final MJ3DCamera camera : cameras){
+						frames.add(new Callable<Integer>() {
+							@Override
+							public Integer call() throws Exception {
+								ZBuffer zBuffer = zBuffers.poll();
+								if(zBuffer == null){
+									zBuffer = new ZBuffer(width, height);
+								}
+								// a camera must not render two frames at once
+								synchronized (camera) {
+									camera.paintImage(zBuffer, ex, -width/2f, -height/2f, width, height);
+								}
+								zBuffers.offer(zBuffer);
+								return camera.getRasterizedTriadCount();
+							}
+						});
+					}
+				}
+				long start = System.nanoTime();
+				long triadCount = 0;
+				for(Future<Integer> result : executor.invokeAll(frames)){
+					triadCount += result.get();
+				}
+				long nanos = System.nanoTime() - start;
+				double framesPerSecond = frames.size() * 1e9 / nanos;
+				System.out.println(String.format("round %d: %.1f frames/s, %.1f frames/s per core, %.0f triads/frame, %d render contexts",
+						round, framesPerSecond, framesPerSecond / coreCount, (double)triadCount / frames.size(), contextPool.getCreatedContextCount()));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task, or null if the runtime does not support virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
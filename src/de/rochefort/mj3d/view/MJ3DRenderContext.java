@@ -0,0 +1,504 @@
+package de.rochefort.mj3d.view;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import de.rochefort.mj3d.math.MJ3DMatrix;
+import de.rochefort.mj3d.math.MJ3DVector;
+import de.rochefort.mj3d.objects.maps.MJ3DBoundingVolumeHierarchy;
+import de.rochefort.mj3d.objects.maps.MJ3DMap;
+import de.rochefort.mj3d.objects.maps.MJ3DTerrainLevelOfDetail;
+
+/**
+ * The scratch state needed to render one frame of a map: the per point projection cache sized to the map,
+ * the projected triads and the traversal stacks. It holds neither the pose nor the settings of a camera,
+ * which are read from the {@link MJ3DCamera} at the start of each frame, so cameras can share contexts
+ * through a {@link MJ3DRenderContextPool}.
+ * A context must only be used by one thread at a time.
+ */
+final class MJ3DRenderContext {
+	private static final int OCCLUSION_BATCH_SIZE = 2048;
+	private final MJ3DMap map;
+	private final float[] pointDistances;
+	private final int[] cachedPointProjectionsX;
+	private final int[] cachedPointProjectionsY;
+	private final int[] cachedPointSubpixelProjectionsX;
+	private final int[] cachedPointSubpixelProjectionsY;
+	private final int[] pointFrameStamps;
+	private int frameStamp = 0;
+	private final ProjectedTriads frameTriads = new ProjectedTriads();
+	// the triads collected in the current frame, either the ones of this context or those of a pipeline slot
+	private ProjectedTriads projectedTriads = frameTriads;
+	private final int[] triadX = new int[3];
+	private final int[] triadY = new int[3];
+	private final int[] triadSubpixelX = new int[3];
+	private final int[] triadSubpixelY = new int[3];
+	private final int[] triadColors = new int[3];
+	private final float[] triadDistances = new float[3];
+	private int[] nodeStack = new int[64];
+	// per terrain with level of detail: the level selected for each chunk in the current frame
+	private final int[][] chunkLevels;
+	private int[] chunkTriadPoints = new int[0];
+	private long[] chunkOrder = new long[0];
+	private final int[] chunkTriad = new int[3];
+	// camera pose, settings and view frustum of the current frame
+	private MJ3DViewingPosition viewingPosition;
+	private float px, py, pz;
+	private float m00, m01, m02, m10, m11, m12, m20, m21, m22;
+	private float frameEx, frameEy, frameEz;
+	private boolean frustumCulling;
+	private float frustumLeft, frustumRight, frustumTop, frustumBottom;
+	private int maxTriadCount;
+	private float maxTriadDistance;
+	private float levelOfDetailTolerance;
+	private ForkJoinPool rasterPool;
+	private int rasterizedTriadCount;
+	private int droppedTriadCount;
+
+	private float tolerance = 1e-14f;
+
+	MJ3DRenderContext(MJ3DMap map) {
+		this.map = map;
+		pointDistances = new float[map.getPointsCount()];
+		cachedPointProjectionsX = new int[map.getPointsCount()];
+		cachedPointProjectionsY = new int[map.getPointsCount()];
+		cachedPointSubpixelProjectionsX = new int[map.getPointsCount()];
+		cachedPointSubpixelProjectionsY = new int[map.getPointsCount()];
+		pointFrameStamps = new int[map.getPointsCount()];
+		MJ3DTerrainLevelOfDetail[] levelsOfDetail = map.getTerrainLevelsOfDetail();
+		chunkLevels = new int[levelsOfDetail.length][];
+		for(int i=0; i<levelsOfDetail.length; i++){
+			chunkLevels[i] = new int[levelsOfDetail[i].getLevelArrayLength()];
+		}
+	}
+
+	/**
+	 * Starts a new frame. A cached point projection is valid for the current frame only if its frame stamp
+	 * equals the current one, so nothing needs to be cleared between frames. Points that have been
+	 * checked in the current frame but turned out to be invisible carry the negated frame stamp.
+	 */
+	private void nextFrameStamp(){
+		if(frameStamp == Integer.MAX_VALUE){
+			Arrays.fill(pointFrameStamps, 0);
+			frameStamp = 0;
+		}
+		frameStamp++;
+	}
+
+	/**
+	 * Renders the map as seen by the camera into the z-buffer.
+	 * @param camera the pose and settings to render with
+	 * @param zBuffer
+	 * @param clear false to render on top of what the z-buffer holds, e.g. to render several maps into one image
+	 * @param maxTriadCount the triad budget for this map
+	 * @param ex
+	 * @param ey
+	 * @param ez
+	 * @param viewPortWidth
+	 * @param viewPortHeight
+	 */
+	void paintImage(MJ3DCamera camera, ZBuffer zBuffer, boolean clear, int maxTriadCount, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) {
+		nextFrameStamp();
+		viewingPosition = camera;
+		if(clear){
+			zBuffer.clear(map.getBackgroundColor(viewingPosition));
+		}
+		prepareFrame(camera, ex, ey, ez, viewPortWidth, viewPortHeight);
+		this.maxTriadCount = maxTriadCount;
+		projectedTriads.clear();
+		rasterizedTriadCount = 0;
+		droppedTriadCount = 0;
+		collectVisibleTriads(camera.isOcclusionCulling() ? zBuffer : null);
+		flushTriads(zBuffer);
+		// do not keep the camera reachable while the context is idle in a pool
+		viewingPosition = null;
+		rasterPool = null;
+	}
+
+	/**
+	 * Runs only the geometry part of a frame: transforms, culls and projects the map as seen by the camera and
+	 * collects the visible triads, within the triad budget of the camera, for rasterization by someone else.
+	 * Occlusion culling is not available, as it needs the depth of the frame being rasterized.
+	 * @param camera the pose and settings to render with
+	 * @param triads receives the projected triads, cleared first
+	 * @param ex
+	 * @param ey
+	 * @param ez
+	 * @param viewPortWidth
+	 * @param viewPortHeight
+	 */
+	void collectTriads(MJ3DCamera camera, ProjectedTriads triads, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) {
+		nextFrameStamp();
+		viewingPosition = camera;
+		prepareFrame(camera, ex, ey, ez, viewPortWidth, viewPortHeight);
+		maxTriadCount = camera.getMaxTriadCount();
+		projectedTriads = triads;
+		projectedTriads.clear();
+		try {
+			collectVisibleTriads(null);
+			droppedTriadCount = projectedTriads.retainNearest(maxTriadCount);
+			rasterizedTriadCount = projectedTriads.size();
+		} finally {
+			projectedTriads = frameTriads;
+			viewingPosition = null;
+			rasterPool = null;
+		}
+	}
+
+	/**
+	 * Rasterizes the collected triads. If that would exceed the triad budget of the frame, only the nearest triads
+	 * that still fit into it are rasterized and the others are counted as dropped. Exceptions thrown while 
+	 * rasterizing, also by the workers of the raster pool, are passed on to the caller.
+	 */
+	private void flushTriads(ZBuffer zBuffer) {
+		droppedTriadCount += projectedTriads.retainNearest(maxTriadCount - rasterizedTriadCount);
+		rasterizedTriadCount += projectedTriads.size();
+		zBuffer.fillTriads(projectedTriads, map.getBackgroundColor(viewingPosition), maxTriadDistance, map.isFoggy(), map.isWireframe(), rasterPool);
+		projectedTriads.clear();
+	}
+
+	/**
+	 * Caches the camera transformation, the settings and the view frustum of the current frame in scalar fields.
+	 * The side planes of the frustum pass through the camera position and are given in camera coordinates
+	 * as bounds for the ratios y/x (horizontal) and z/x (vertical), widened by a small margin of pixels
+	 * to account for the truncation of projected coordinates.
+	 */
+	private void prepareFrame(MJ3DCamera camera, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) {
+		MJ3DMatrix rotationMatrix = new MJ3DMatrix(camera.getOrientation());
+		MJ3DVector position = camera.getPosition();
+		maxTriadDistance = camera.getMaxTriadDistance();
+		levelOfDetailTolerance = camera.getLevelOfDetailTolerance();
+		rasterPool = camera.getRasterPool();
+		frameEx = ex;
+		frameEy = ey;
+		frameEz = ez;
+		px = position.getX();
+		py = position.getY();
+		pz = position.getZ();
+		m00 = rotationMatrix.getValue(0, 0);
+		m01 = rotationMatrix.getValue(0, 1);
+		m02 = rotationMatrix.getValue(0, 2);
+		m10 = rotationMatrix.getValue(1, 0);
+		m11 = rotationMatrix.getValue(1, 1);
+		m12 = rotationMatrix.getValue(1, 2);
+		m20 = rotationMatrix.getValue(2, 0);
+		m21 = rotationMatrix.getValue(2, 1);
+		m22 = rotationMatrix.getValue(2, 2);
+		frustumCulling = ex > 0;
+		if(frustumCulling){
+			float margin = 2;
+			frustumLeft = (ey - margin) / ex;
+			frustumRight = (viewPortWidth + margin + ey) / ex;
+			frustumTop = (ez - margin) / ex;
+			frustumBottom = (viewPortHeight + margin + ez) / ex;
+		}
+	}
+
+	/**
+	 * Walks the bounding volume hierarchy of the map front to back, skips all nodes that are entirely out of range or
+	 * outside of the view frustum and adds the visible triads of the remaining leaves to the projected triads.
+	 * Points are only transformed when a triad referencing them is reached.
+	 * If a z-buffer for occlusion culling is given, the collected triads are rasterized in batches, and nodes
+	 * and triads hidden behind what has been drawn so far are skipped as well.
+	 * Terrains with level of detail are handled the same way chunk by chunk afterwards.
+	 */
+	private void collectVisibleTriads(ZBuffer occlusionBuffer) {
+		collectHierarchyTriads(occlusionBuffer);
+		MJ3DTerrainLevelOfDetail[] levelsOfDetail = map.getTerrainLevelsOfDetail();
+		for(int i=0; i<levelsOfDetail.length; i++){
+			collectTerrainTriads(levelsOfDetail[i], chunkLevels[i], occlusionBuffer);
+		}
+	}
+
+	private void collectHierarchyTriads(ZBuffer occlusionBuffer) {
+		MJ3DBoundingVolumeHierarchy hierarchy = map.getBoundingVolumeHierarchy();
+		if(hierarchy.getNodeCount() == 0){
+			return;
+		}
+		int[][] triadPoints = map.getTriadPointsArray();
+		float[] triadNormals = map.isBackfaceCulling() ? map.getTriadNormalsArray() : null;
+		int stackSize = 0;
+		nodeStack[stackSize++] = 0;
+		while(stackSize > 0){
+			int node = nodeStack[--stackSize];
+			if(isNodeCulled(hierarchy, node) || occlusionBuffer != null && isNodeOccluded(hierarchy, node, occlusionBuffer)){
+				continue;
+			}
+			if(hierarchy.isLeaf(node)){
+				int first = hierarchy.getFirstTriad(node);
+				int end = first + hierarchy.getTriadCount(node);
+				for(int i=first; i<end; i++){
+					int triad = hierarchy.getOrderedTriad(i);
+					if(triadNormals != null && isBackface(triadNormals, triad, triadPoints[triad][0])){
+						continue;
+					}
+					if(addTriadIfVisible(triadPoints[triad]) && occlusionBuffer != null && isLastTriadOccluded(occlusionBuffer)){
+						projectedTriads.removeLast();
+					}
+				}
+				if(occlusionBuffer != null && projectedTriads.size() >= OCCLUSION_BATCH_SIZE){
+					flushTriads(occlusionBuffer);
+				}
+			}
+			else{
+				if(stackSize + 2 > nodeStack.length){
+					nodeStack = Arrays.copyOf(nodeStack, 2 * nodeStack.length);
+				}
+				int firstChild = hierarchy.getFirstChild(node);
+				// push the farther child first, so that the nearer one is visited first
+				if(getSquaredNodeDistance(hierarchy, firstChild) < getSquaredNodeDistance(hierarchy, firstChild + 1)){
+					nodeStack[stackSize++] = firstChild + 1;
+					nodeStack[stackSize++] = firstChild;
+				}
+				else{
+					nodeStack[stackSize++] = firstChild;
+					nodeStack[stackSize++] = firstChild + 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Selects the level of each chunk of the terrain from its screen space error and adds the triads of the
+	 * chunks that are in range and not outside of the view frustum, nearest chunk first.
+	 */
+	private void collectTerrainTriads(MJ3DTerrainLevelOfDetail levelOfDetail, int[] levels, ZBuffer occlusionBuffer) {
+		levelOfDetail.selectLevels(-px, -py, -pz, frameEx, levelOfDetailTolerance, levels);
+		int chunkCount = levelOfDetail.getChunkCount();
+		if(chunkOrder.length < chunkCount){
+			chunkOrder = new long[chunkCount];
+		}
+		if(chunkTriadPoints.length < levelOfDetail.getMaxTriadPointsPerChunk()){
+			chunkTriadPoints = new int[levelOfDetail.getMaxTriadPointsPerChunk()];
+		}
+		int visibleChunkCount = 0;
+		for(int chunk=0; chunk<chunkCount; chunk++){
+			float cx = levelOfDetail.getCenterX(chunk);
+			float cy = levelOfDetail.getCenterY(chunk);
+			float cz = levelOfDetail.getCenterZ(chunk);
+			if(isSphereCulled(cx, cy, cz, levelOfDetail.getRadius(chunk))){
+				continue;
+			}
+			// non-negative floats sort like their bits, so the chunks can be ordered by distance with a plain long sort
+			float tx = cx + px;
+			float ty = cy + py;
+			float tz = cz + pz;
+			chunkOrder[visibleChunkCount++] = ((long)Float.floatToIntBits(tx*tx+ty*ty+tz*tz) << 32) | chunk;
+		}
+		Arrays.sort(chunkOrder, 0, visibleChunkCount);
+		boolean backfaceCulling = map.isBackfaceCulling();
+		for(int i=0; i<visibleChunkCount; i++){
+			int chunk = (int)chunkOrder[i];
+			if(occlusionBuffer != null && isSphereOccluded(levelOfDetail.getCenterX(chunk), levelOfDetail.getCenterY(chunk),
+					levelOfDetail.getCenterZ(chunk), levelOfDetail.getRadius(chunk), occlusionBuffer)){
+				continue;
+			}
+			int triadCount = levelOfDetail.getChunkTriads(chunk, levels, chunkTriadPoints);
+			for(int triad=0; triad<triadCount; triad++){
+				chunkTriad[0] = chunkTriadPoints[3*triad];
+				chunkTriad[1] = chunkTriadPoints[3*triad+1];
+				chunkTriad[2] = chunkTriadPoints[3*triad+2];
+				if(backfaceCulling && isBackface(chunkTriad)){
+					continue;
+				}
+				if(addTriadIfVisible(chunkTriad) && occlusionBuffer != null && isLastTriadOccluded(occlusionBuffer)){
+					projectedTriads.removeLast();
+				}
+			}
+			if(occlusionBuffer != null && projectedTriads.size() >= OCCLUSION_BATCH_SIZE){
+				flushTriads(occlusionBuffer);
+			}
+		}
+	}
+
+	private float getSquaredNodeDistance(MJ3DBoundingVolumeHierarchy hierarchy, int node) {
+		float tx = hierarchy.getCenterX(node) + px;
+		float ty = hierarchy.getCenterY(node) + py;
+		float tz = hierarchy.getCenterZ(node) + pz;
+		return tx*tx+ty*ty+tz*tz;
+	}
+
+	/**
+	 * Projects the bounding box of the node's sphere in camera coordinates conservatively onto the screen
+	 * and checks whether that rectangle is hidden at the smallest possible distance of the node.
+	 */
+	private boolean isNodeOccluded(MJ3DBoundingVolumeHierarchy hierarchy, int node, ZBuffer occlusionBuffer) {
+		return isSphereOccluded(hierarchy.getCenterX(node), hierarchy.getCenterY(node), hierarchy.getCenterZ(node), hierarchy.getRadius(node), occlusionBuffer);
+	}
+
+	private boolean isSphereOccluded(float centerX, float centerY, float centerZ, float radius, ZBuffer occlusionBuffer) {
+		float tx = centerX + px;
+		float ty = centerY + py;
+		float tz = centerZ + pz;
+		float dx = m00*tx + m01*ty + m02*tz;
+		float nearX = dx - radius;
+		if(nearX < tolerance){
+			return false;
+		}
+		float farX = dx + radius;
+		float dy = m10*tx + m11*ty + m12*tz;
+		float dz = m20*tx + m21*ty + m22*tz;
+		float minRatioY = Math.min((dy - radius) / nearX, (dy - radius) / farX);
+		float maxRatioY = Math.max((dy + radius) / nearX, (dy + radius) / farX);
+		float minRatioZ = Math.min((dz - radius) / nearX, (dz - radius) / farX);
+		float maxRatioZ = Math.max((dz + radius) / nearX, (dz + radius) / farX);
+		int minX = (int)Math.floor(frameEx * minRatioY - frameEy) - 1;
+		int maxX = (int)Math.ceil(frameEx * maxRatioY - frameEy) + 1;
+		int minY = (int)Math.floor(frameEx * minRatioZ - frameEz) - 1;
+		int maxY = (int)Math.ceil(frameEx * maxRatioZ - frameEz) + 1;
+		float minDistance = (float)Math.sqrt(tx*tx+ty*ty+tz*tz) - radius;
+		return occlusionBuffer.isOccluded(minX, minY, maxX, maxY, minDistance);
+	}
+
+	private boolean isLastTriadOccluded(ZBuffer occlusionBuffer) {
+		int minX = Math.min(triadX[0], Math.min(triadX[1], triadX[2]));
+		int maxX = Math.max(triadX[0], Math.max(triadX[1], triadX[2]));
+		int minY = Math.min(triadY[0], Math.min(triadY[1], triadY[2]));
+		int maxY = Math.max(triadY[0], Math.max(triadY[1], triadY[2]));
+		float minDistance = Math.min(triadDistances[0], Math.min(triadDistances[1], triadDistances[2]));
+		return occlusionBuffer.isOccluded(minX - 1, minY - 1, maxX + 1, maxY + 1, minDistance);
+	}
+
+	private boolean isNodeCulled(MJ3DBoundingVolumeHierarchy hierarchy, int node) {
+		return isSphereCulled(hierarchy.getCenterX(node), hierarchy.getCenterY(node), hierarchy.getCenterZ(node), hierarchy.getRadius(node));
+	}
+
+	private boolean isSphereCulled(float centerX, float centerY, float centerZ, float radius) {
+		float tx = centerX + px;
+		float ty = centerY + py;
+		float tz = centerZ + pz;
+		float distance = (float)Math.sqrt(tx*tx+ty*ty+tz*tz);
+		if(distance - radius > maxTriadDistance){
+			return true;
+		}
+		float dx = m00*tx + m01*ty + m02*tz;
+		if(dx + radius < tolerance){
+			return true;
+		}
+		if(!frustumCulling){
+			return false;
+		}
+		float dy = m10*tx + m11*ty + m12*tz;
+		float dz = m20*tx + m21*ty + m22*tz;
+		return isOutsideOfPlane(dy, dx, frustumLeft, radius)
+				|| isOutsideOfPlane(-dy, -dx, frustumRight, radius)
+				|| isOutsideOfPlane(dz, dx, frustumTop, radius)
+				|| isOutsideOfPlane(-dz, -dx, frustumBottom, radius);
+	}
+
+	/**
+	 * @return true if a sphere is entirely on the outer side of the plane a = bound * b, where the inner side is a > bound * b
+	 */
+	private static boolean isOutsideOfPlane(float a, float b, float bound, float radius) {
+		return bound * b - a > radius * (float)Math.sqrt(1 + bound * bound);
+	}
+
+	/**
+	 * @return true if the camera is not on the side of the triad its normal points to
+	 */
+	private boolean isBackface(float[] triadNormals, int triad, int firstPoint) {
+		float tx = map.getPointsXArray()[firstPoint]+px;
+		float ty = map.getPointsYArray()[firstPoint]+py;
+		float tz = map.getPointsZArray()[firstPoint]+pz;
+		int offset = 3*triad;
+		// the camera is located at -position, so the vector from the point to the camera is -(point+position)
+		return triadNormals[offset]*tx + triadNormals[offset+1]*ty + triadNormals[offset+2]*tz >= 0;
+	}
+
+	/**
+	 * Like {@link #isBackface(float[], int, int)}, but computes the normal from the points of the triad
+	 * @return true if the camera is not on the side of the triad its normal points to
+	 */
+	private boolean isBackface(int[] triadPts) {
+		float[] xs = map.getPointsXArray();
+		float[] ys = map.getPointsYArray();
+		float[] zs = map.getPointsZArray();
+		int p0 = triadPts[0];
+		float ax = xs[triadPts[1]] - xs[p0];
+		float ay = ys[triadPts[1]] - ys[p0];
+		float az = zs[triadPts[1]] - zs[p0];
+		float bx = xs[triadPts[2]] - xs[p0];
+		float by = ys[triadPts[2]] - ys[p0];
+		float bz = zs[triadPts[2]] - zs[p0];
+		float tx = xs[p0]+px;
+		float ty = ys[p0]+py;
+		float tz = zs[p0]+pz;
+		return (ay * bz - az * by)*tx + (az * bx - ax * bz)*ty + (ax * by - ay * bx)*tz >= 0;
+	}
+
+	/**
+	 * @return true if the triad has been added
+	 */
+	private boolean addTriadIfVisible(int[] triadPts) {
+		int[] pointColors = map.getPointColorsArray();
+		for(int triadPointIndex=0; triadPointIndex<triadPts.length; triadPointIndex++){
+			int pointIndex = triadPts[triadPointIndex];
+			int stamp = pointFrameStamps[pointIndex];
+			if(stamp != frameStamp && (stamp == -frameStamp || !projectPoint(pointIndex))){
+				return false;
+			}
+			triadDistances[triadPointIndex] = pointDistances[pointIndex];
+			triadX[triadPointIndex] = cachedPointProjectionsX[pointIndex];
+			triadY[triadPointIndex] = cachedPointProjectionsY[pointIndex];
+			triadSubpixelX[triadPointIndex] = cachedPointSubpixelProjectionsX[pointIndex];
+			triadSubpixelY[triadPointIndex] = cachedPointSubpixelProjectionsY[pointIndex];
+			triadColors[triadPointIndex] = pointColors[pointIndex];
+		}
+		projectedTriads.add(triadX, triadY, triadSubpixelX, triadSubpixelY, triadColors, triadDistances);
+		return true;
+	}
+
+	/**
+	 * Translates, rotates and projects a single point without allocating anything and stamps it with the current frame.
+	 * @return false if the point is too far away or behind the camera
+	 */
+	private boolean projectPoint(int i) {
+		float tx = map.getPointsXArray()[i]+px;
+		float ty = map.getPointsYArray()[i]+py;
+		float tz = map.getPointsZArray()[i]+pz;
+		float distance = (float)Math.sqrt(tx*tx+ty*ty+tz*tz);
+		float dx = m00*tx + m01*ty + m02*tz;
+		if(distance>maxTriadDistance || dx < tolerance){
+			pointFrameStamps[i] = -frameStamp;
+			return false;
+		}
+		float dy = m10*tx + m11*ty + m12*tz;
+		float dz = m20*tx + m21*ty + m22*tz;
+		pointDistances[i] = distance;
+		float screenX = frameEx * dy / dx - frameEy;
+		float screenY = frameEx * dz / dx - frameEz;
+		cachedPointProjectionsX[i] = (int) screenX;
+		cachedPointProjectionsY[i] = (int) screenY;
+		cachedPointSubpixelProjectionsX[i] = toSubpixel(screenX);
+		cachedPointSubpixelProjectionsY[i] = toSubpixel(screenY);
+		pointFrameStamps[i] = frameStamp;
+		return true;
+	}
+
+	/**
+	 * Converts a screen coordinate to fixed point, clamped to the range of {@link ProjectedTriads#MAX_SUBPIXEL_COORDINATE}, 
+	 * since points close to the camera plane project far outside of the range of int
+	 */
+	private static int toSubpixel(float screenCoordinate) {
+		float subpixel = screenCoordinate * ProjectedTriads.SUBPIXEL_SCALE;
+		return (int) Math.max(-ProjectedTriads.MAX_SUBPIXEL_COORDINATE, Math.min(ProjectedTriads.MAX_SUBPIXEL_COORDINATE, subpixel));
+	}
+
+	MJ3DMap getMap() {
+		return map;
+	}
+
+	/**
+	 * @return the number of triads rasterized in the last frame
+	 */
+	int getRasterizedTriadCount() {
+		return rasterizedTriadCount;
+	}
+
+	/**
+	 * @return the number of visible triads left out in the last frame because of the triad budget
+	 */
+	int getDroppedTriadCount() {
+		return droppedTriadCount;
+	}
+}
@@ -0,0 +1,65 @@
+package de.rochefort.mj3d.view;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.rochefort.mj3d.objects.maps.MJ3DMap;
+
+/**
+ * Hands out the render contexts holding the per point scratch arrays for one map.
+ * Every camera borrows a context for the duration of a frame only, so any number of cameras over the same map
+ * can render concurrently while the number of contexts, and with it the memory used besides the map itself,
+ * stays at the number of frames rendered at the same time, no matter how many cameras or threads there are.
+ * Thread safe.
+ */
+public class MJ3DRenderContextPool {
+	private final MJ3DMap map;
+	private final ConcurrentLinkedQueue<MJ3DRenderContext> idleContexts = new ConcurrentLinkedQueue<MJ3DRenderContext>();
+	private final AtomicInteger createdContextCount = new AtomicInteger();
+
+	public MJ3DRenderContextPool(MJ3DMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * @return an idle context, or a new one if all contexts are in use
+	 */
+	MJ3DRenderContext acquire() {
+		MJ3DRenderContext context = idleContexts.poll();
+		if(context == null){
+			context = new MJ3DRenderContext(map);
+			createdContextCount.incrementAndGet();
+		}
+		return context;
+	}
+
+	void release(MJ3DRenderContext context) {
+		if(context.getMap() != map){
+			throw new IllegalArgumentException("Render context belongs to another map");
+		}
+		idleContexts.offer(context);
+	}
+
+	/**
+	 * Creates idle contexts up front, so that the first frames rendered with this pool do not have to allocate 
+	 * the point caches, e.g. when a map is built in the background while frames are rendered
+	 * @param contextCount the number of idle contexts to have at least
+	 */
+	public void preallocate(int contextCount) {
+		for(int i=idleContexts.size(); i<contextCount; i++){
+			idleContexts.offer(new MJ3DRenderContext(map));
+			createdContextCount.incrementAndGet();
+		}
+	}
+
+	public MJ3DMap getMap() {
+		return map;
+	}
+
+	/**
+	 * @return the number of contexts created so far. Without preallocation, that is the largest number of frames rendered at the same time
+	 */
+	public int getCreatedContextCount() {
+		return createdContextCount.get();
+	}
+}
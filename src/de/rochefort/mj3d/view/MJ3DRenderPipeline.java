@@ -0,0 +1,240 @@
+package de.rochefort.mj3d.view;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+import de.rochefort.mj3d.objects.maps.MJ3DMap;
+
+/**
+ * Renders a sequence of frames of one camera in two overlapping stages: while the triads of frame N are rasterized
+ * on a raster thread of the pipeline (and on the raster threads of the camera, if it has more than one),
+ * the calling thread already transforms, culls and projects frame N+1. Once both stages are busy,
+ * the frame rate approaches the one of the slower stage instead of the one of both stages in a row.
+ * <p>
+ * The stages hand frames over through a ring of slots, each holding the packed triads of one frame and
+ * allocated up front for all triads of the map, so the steady state allocates nothing.
+ * A frame is passed in with {@link #submitFrame(ZBuffer, float, float, float, int, int)} and its z-buffer
+ * is handed back by {@link #takeFrame()} once rasterized, in the order of submission. A z-buffer must not be touched
+ * between the two calls, so there have to be at least two of them to keep both stages busy.
+ * Occlusion culling of the camera is ignored, as it needs the depth of the frame being rasterized.
+ * <p>
+ * Frames are submitted and taken by a single thread. Close the pipeline to stop its raster thread.
+ */
+public class MJ3DRenderPipeline implements AutoCloseable {
+	public static final int DEFAULT_SLOT_COUNT = 2;
+	private final MJ3DCamera camera;
+	private final MJ3DMap map;
+	private final Slot[] slots;
+	// slots ready for the geometry stage, slots ready for the raster stage, slots with a finished frame
+	private final Semaphore freeSlots;
+	private final Semaphore projectedSlots = new Semaphore(0);
+	private final Semaphore rasterizedSlots = new Semaphore(0);
+	// each index is only used by the thread running the respective stage
+	private int nextGeometrySlot = 0;
+	private int nextRasterSlot = 0;
+	private int nextTakenSlot = 0;
+	private int pendingFrameCount = 0;
+	private int rasterizedTriadCount;
+	private int droppedTriadCount;
+	private final Thread rasterThread;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a pipeline with {@link #DEFAULT_SLOT_COUNT} slots
+	 * @param camera
+	 */
+	public MJ3DRenderPipeline(MJ3DCamera camera) {
+		this(camera, DEFAULT_SLOT_COUNT);
+	}
+
+	/**
+	 * @param camera the camera to render with. Its pose and settings are read when a frame is submitted.
+	 * @param slotCount the number of frames that can be in the pipeline at once, at least 2 for the stages to overlap
+	 */
+	public MJ3DRenderPipeline(MJ3DCamera camera, int slotCount) {
+		if(slotCount < 1){
+			throw new IllegalArgumentException("Slot count must be positive but was "+slotCount);
+		}
+		this.camera = camera;
+		this.map = camera.getContextPool().getMap();
+		slots = new Slot[slotCount];
+		for(int i=0; i<slotCount; i++){
+			slots[i] = new Slot(new ProjectedTriads(map.getTriadCount()));
+		}
+		freeSlots = new Semaphore(slotCount);
+		rasterThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				rasterizeFrames();
+			}
+		}, "MJ3D raster stage");
+		rasterThread.setDaemon(true);
+		rasterThread.start();
+	}
+
+	/**
+	 * Runs the geometry stage of a frame on the calling thread and passes the frame on to the raster stage.
+	 * Fails if all slots are in use, so take a frame first once {@link #getPendingFrameCount()} reaches the slot count.
+	 * @param zBuffer the z-buffer to render the frame into
+	 * @param ex
+	 * @param ey
+	 * @param ez
+	 * @param viewPortWidth
+	 * @param viewPortHeight
+	 * @throws InterruptedException
+	 */
+	public void submitFrame(ZBuffer zBuffer, float ex, float ey, float ez, int viewPortWidth, int viewPortHeight) throws InterruptedException {
+		checkOpen();
+		if(pendingFrameCount == slots.length){
+			throw new IllegalStateException("All "+slots.length+" slots are in use, take a frame first");
+		}
+		freeSlots.acquire();
+		checkOpen();
+		Slot slot = slots[nextGeometrySlot];
+		MJ3DRenderContext context = camera.getContextPool().acquire();
+		try {
+			context.collectTriads(camera, slot.triads, ex, ey, ez, viewPortWidth, viewPortHeight);
+			slot.rasterizedTriadCount = context.getRasterizedTriadCount();
+			slot.droppedTriadCount = context.getDroppedTriadCount();
+		} catch (RuntimeException e) {
+			// the slot stays free for the next frame
+			freeSlots.release();
+			throw e;
+		} finally {
+			camera.getContextPool().release(context);
+		}
+		nextGeometrySlot = (nextGeometrySlot + 1) % slots.length;
+		slot.zBuffer = zBuffer;
+		slot.backgroundColor = map.getBackgroundColor(camera);
+		slot.maxTriadDistance = camera.getMaxTriadDistance();
+		slot.foggy = map.isFoggy();
+		slot.wireframe = map.isWireframe();
+		slot.rasterPool = camera.getRasterPool();
+		slot.error = null;
+		pendingFrameCount++;
+		projectedSlots.release();
+	}
+
+	/**
+	 * Waits for the oldest submitted frame to be rasterized. Errors thrown while rasterizing the frame are rethrown as they are, 
+	 * exceptions are wrapped in an {@link IllegalStateException}.
+	 * @return the z-buffer the frame has been rendered into
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if rasterizing the frame failed or the pipeline has been closed, also while waiting
+	 */
+	public ZBuffer takeFrame() throws InterruptedException {
+		if(pendingFrameCount == 0){
+			throw new IllegalStateException("No frame has been submitted");
+		}
+		checkOpen();
+		rasterizedSlots.acquire();
+		checkOpen();
+		Slot slot = slots[nextTakenSlot];
+		nextTakenSlot = (nextTakenSlot + 1) % slots.length;
+		ZBuffer zBuffer = slot.zBuffer;
+		Throwable error = slot.error;
+		rasterizedTriadCount = slot.rasterizedTriadCount;
+		droppedTriadCount = slot.droppedTriadCount;
+		slot.zBuffer = null;
+		slot.rasterPool = null;
+		pendingFrameCount--;
+		freeSlots.release();
+		if(error instanceof Error){
+			throw (Error)error;
+		}
+		if(error != null){
+			throw new IllegalStateException("Rasterizing the frame failed", error);
+		}
+		return zBuffer;
+	}
+
+	private void checkOpen() {
+		if(closed){
+			throw new IllegalStateException("Pipeline has been closed");
+		}
+	}
+
+	private void rasterizeFrames() {
+		while(true){
+			try {
+				projectedSlots.acquire();
+			} catch (InterruptedException e) {
+				return;
+			}
+			Slot slot = slots[nextRasterSlot];
+			nextRasterSlot = (nextRasterSlot + 1) % slots.length;
+			try {
+				slot.zBuffer.clear(slot.backgroundColor);
+				slot.zBuffer.fillTriads(slot.triads, slot.backgroundColor, slot.maxTriadDistance, slot.foggy, slot.wireframe, slot.rasterPool);
+			} catch (Throwable e) {
+				// handed to takeFrame, so the frame is released even if the raster thread runs out of memory
+				slot.error = e;
+			}
+			slot.triads.clear();
+			rasterizedSlots.release();
+		}
+	}
+
+	/**
+	 * @return the number of frames submitted but not taken yet
+	 */
+	public int getPendingFrameCount() {
+		return pendingFrameCount;
+	}
+
+	public int getSlotCount() {
+		return slots.length;
+	}
+
+	/**
+	 * @return the number of triads rasterized in the frame taken last
+	 */
+	public int getRasterizedTriadCount() {
+		return rasterizedTriadCount;
+	}
+
+	/**
+	 * @return the number of visible triads left out in the frame taken last because of the triad budget
+	 */
+	public int getDroppedTriadCount() {
+		return droppedTriadCount;
+	}
+
+	public MJ3DCamera getCamera() {
+		return camera;
+	}
+
+	/**
+	 * Stops the raster thread. Frames not taken yet are discarded, and a thread waiting in {@link #takeFrame()}
+	 * or {@link #submitFrame(ZBuffer, float, float, float, int, int)} is woken up with an {@link IllegalStateException}.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		rasterThread.interrupt();
+		// frames are submitted and taken by a single thread, so one permit each would do
+		rasterizedSlots.release(slots.length);
+		freeSlots.release(slots.length);
+	}
+
+	/**
+	 * A frame on its way through the pipeline. Written by the stage owning the slot only, the semaphores
+	 * passing the slot on make the writes visible to the next stage.
+	 */
+	private static class Slot {
+		private final ProjectedTriads triads;
+		private ZBuffer zBuffer;
+		private int backgroundColor;
+		private float maxTriadDistance;
+		private boolean foggy;
+		private boolean wireframe;
+		private ForkJoinPool rasterPool;
+		private int rasterizedTriadCount;
+		private int droppedTriadCount;
+		private Throwable error;
+
+		private Slot(ProjectedTriads triads) {
+			this.triads = triads;
+		}
+	}
+}
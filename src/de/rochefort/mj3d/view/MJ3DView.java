@@ -2,21 +2,40 @@ package de.rochefort.mj3d.view;
 
 import java.awt.Component;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 
 import javax.swing.JPanel;
 
 import de.rochefort.mj3d.objects.maps.MJ3DMap;
+import de.rochefort.mj3d.objects.maps.MJ3DRayHit;
 
 public class MJ3DView extends JPanel{
 	private static final long serialVersionUID = 1L;
+	// resolution steps of the adaptive mode as fractions of the view size per axis
+	private static final float[] RESOLUTION_SCALES = {1f, 0.85f, 0.7f, 0.6f, 0.5f, 0.4f};
+	// weight of the latest frame in the average frame time
+	private static final float FRAME_TIME_SMOOTHING = 0.1f;
+	// frames to wait after a change of resolution before the next one
+	private static final int RESOLUTION_CHANGE_COOLDOWN = 15;
+	// leave some headroom: lower resolution above 110% of the target, raise it if the higher one is predicted below 85%
+	private static final float LOWER_RESOLUTION_THRESHOLD = 1.1f;
+	private static final float RAISE_RESOLUTION_THRESHOLD = 0.85f;
 	private MJ3DCamera camera;
 	private float ex=0;
 	private float ey=0;
 	private float ez=0;
 	private int currentWidth=0;
 	private int currentHeight=0;
+	private ZBuffer zBuffer;
+	private boolean adaptiveResolution = false;
+	private float targetFrameTimeMillis = 1000f / 30f;
+	private int resolutionStep = 0;
+	private final ZBuffer[] scaledZBuffers = new ZBuffer[RESOLUTION_SCALES.length];
+	private float averageFrameTimeMillis = 0;
+	private int framesSinceResolutionChange = 0;
 
 	public MJ3DView(Component parentComponent,  MJ3DMap map, MJ3DCamera camera) {
 		this.camera = camera;
@@ -98,11 +117,133 @@ public class MJ3DView extends JPanel{
 //	}
 	protected void paintComponent(Graphics g) {
 		super.paintComponent(g);
-		ZBuffer zBuffer = new ZBuffer(currentWidth, currentHeight);
+		if(adaptiveResolution){
+			paintAdaptive(g);
+			return;
+		}
+		if(zBuffer == null || zBuffer.getWidth() != currentWidth || zBuffer.getHeight() != currentHeight){
+			zBuffer = new ZBuffer(currentWidth, currentHeight);
+		}
 //		this.camera.paintImagePolygon(zBuffer, ex, ey, ez, currentWidth, currentHeight);
 		this.camera.paintImage(zBuffer, ex, ey, ez, currentWidth, currentHeight);
 		g.drawImage(zBuffer.getBufferedImage(), 0, 0, null);
 	}
+	
+	/**
+	 * Renders into the z-buffer of the current resolution step, scales the image up to the view size 
+	 * and adjusts the resolution step to the measured frame time.
+	 */
+	private void paintAdaptive(Graphics g) {
+		ZBuffer scaledZBuffer = getScaledZBuffer();
+		int width = scaledZBuffer.getWidth();
+		int height = scaledZBuffer.getHeight();
+		// same field of view as at full resolution
+		float scaledEy = -width/2f;
+		float scaledEz = -height/2f;
+		float scaledEx = -0.7f*(scaledEz+scaledEy);
+		long start = System.nanoTime();
+		this.camera.paintImage(scaledZBuffer, scaledEx, scaledEy, scaledEz, width, height);
+		updateResolutionStep((System.nanoTime() - start) / 1e6f);
+		if(g instanceof Graphics2D){
+			((Graphics2D)g).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		}
+		g.drawImage(scaledZBuffer.getBufferedImage(), 0, 0, currentWidth, currentHeight, null);
+	}
+	
+	/**
+	 * @return the z-buffer of the current resolution step, created once per step and view size
+	 */
+	private ZBuffer getScaledZBuffer() {
+		int width = getInternalWidth();
+		int height = getInternalHeight();
+		ZBuffer scaledZBuffer = scaledZBuffers[resolutionStep];
+		if(scaledZBuffer == null || scaledZBuffer.getWidth() != width || scaledZBuffer.getHeight() != height){
+			scaledZBuffer = new ZBuffer(width, height);
+			scaledZBuffers[resolutionStep] = scaledZBuffer;
+		}
+		return scaledZBuffer;
+	}
+	
+	private void updateResolutionStep(float frameTimeMillis) {
+		if(framesSinceResolutionChange == 0){
+			averageFrameTimeMillis = frameTimeMillis;
+		}
+		else{
+			averageFrameTimeMillis += FRAME_TIME_SMOOTHING * (frameTimeMillis - averageFrameTimeMillis);
+		}
+		framesSinceResolutionChange++;
+		if(framesSinceResolutionChange < RESOLUTION_CHANGE_COOLDOWN){
+			return;
+		}
+		if(averageFrameTimeMillis > LOWER_RESOLUTION_THRESHOLD * targetFrameTimeMillis && resolutionStep < RESOLUTION_SCALES.length - 1){
+			resolutionStep++;
+			framesSinceResolutionChange = 0;
+		}
+		else if(resolutionStep > 0){
+			// the frame time is assumed to grow with the number of pixels
+			float pixelRatio = RESOLUTION_SCALES[resolutionStep-1] / RESOLUTION_SCALES[resolutionStep];
+			if(averageFrameTimeMillis * pixelRatio * pixelRatio < RAISE_RESOLUTION_THRESHOLD * targetFrameTimeMillis){
+				resolutionStep--;
+				framesSinceResolutionChange = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Finds the triad visible at a point of the view, e.g. under the mouse, see {@link MJ3DCamera#pick(int, int, float, float, float, MJ3DRayHit)}.
+	 * With adaptive resolution the point is given in view coordinates as well, as the field of view does not change.
+	 * @param x
+	 * @param y
+	 * @param hit
+	 * @return true if a triad has been hit
+	 */
+	public boolean pick(int x, int y, MJ3DRayHit hit) {
+		return camera.pick(x, y, ex, ey, ez, hit);
+	}
+	
+	/**
+	 * Enables rendering at a reduced internal resolution whenever the recent frame times exceed the target frame time. 
+	 * The image is scaled up to the size of the view.
+	 * @param adaptiveResolution
+	 */
+	public void setAdaptiveResolution(boolean adaptiveResolution) {
+		this.adaptiveResolution = adaptiveResolution;
+		resolutionStep = 0;
+		framesSinceResolutionChange = 0;
+	}
+	
+	public boolean isAdaptiveResolution() {
+		return adaptiveResolution;
+	}
+	
+	public void setTargetFrameTimeMillis(float targetFrameTimeMillis) {
+		this.targetFrameTimeMillis = targetFrameTimeMillis;
+	}
+	
+	public float getTargetFrameTimeMillis() {
+		return targetFrameTimeMillis;
+	}
+	
+	/**
+	 * @return the fraction of the view size per axis that is currently rendered
+	 */
+	public float getResolutionScale() {
+		return adaptiveResolution ? RESOLUTION_SCALES[resolutionStep] : 1f;
+	}
+	
+	/**
+	 * @return the width of the image that is currently rendered
+	 */
+	public int getInternalWidth() {
+		return Math.max(1, Math.round(currentWidth * getResolutionScale()));
+	}
+	
+	/**
+	 * @return the height of the image that is currently rendered
+	 */
+	public int getInternalHeight() {
+		return Math.max(1, Math.round(currentHeight * getResolutionScale()));
+	}
 	public void initialize() {
 //		this.addComponentListener(new ComponentListener() {
 //			@Override
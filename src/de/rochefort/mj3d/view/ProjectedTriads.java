@@ -0,0 +1,172 @@
+package de.rochefort.mj3d.view;
+
+import java.util.Arrays;
+
+/**
+ * Packed, growable list of triads that have already been projected onto the screen.
+ * The three vertices of triad i are stored at offsets 3*i, 3*i+1 and 3*i+2 of each array.
+ * Screen coordinates are stored both as whole pixels and in fixed point with {@link #SUBPIXEL_BITS} fractional bits.
+ * Instances are meant to be reused from frame to frame, so {@link #clear()} keeps the allocated arrays.
+ */
+public class ProjectedTriads {
+	public static final int SUBPIXEL_BITS = 4;
+	public static final int SUBPIXEL_SCALE = 1 << SUBPIXEL_BITS;
+	// sub-pixel coordinates are clamped to this range, far beyond anything the rasterizers handle in fixed point
+	public static final int MAX_SUBPIXEL_COORDINATE = 1 << 30;
+	private int[] x;
+	private int[] y;
+	private int[] subpixelX;
+	private int[] subpixelY;
+	private int[] colors;
+	private float[] distances;
+	private float[] nearestDistances = new float[0];
+	private int count = 0;
+
+	public ProjectedTriads() {
+		this(1024);
+	}
+
+	public ProjectedTriads(int initialCapacity) {
+		int capacity = 3 * Math.max(1, initialCapacity);
+		x = new int[capacity];
+		y = new int[capacity];
+		subpixelX = new int[capacity];
+		subpixelY = new int[capacity];
+		colors = new int[capacity];
+		distances = new float[capacity];
+	}
+
+	public void clear(){
+		count = 0;
+	}
+
+	public int size(){
+		return count;
+	}
+
+	public void add(int[] pointsX, int[] pointsY, int[] pointsSubpixelX, int[] pointsSubpixelY, int[] pointColors, float[] pointDistances){
+		ensureCapacity(count+1);
+		int offset = 3*count;
+		for(int v=0; v<3; v++){
+			x[offset+v] = pointsX[v];
+			y[offset+v] = pointsY[v];
+			subpixelX[offset+v] = pointsSubpixelX[v];
+			subpixelY[offset+v] = pointsSubpixelY[v];
+			colors[offset+v] = pointColors[v];
+			distances[offset+v] = pointDistances[v];
+		}
+		count++;
+	}
+
+	public void removeLast(){
+		if(count > 0)
+			count--;
+	}
+
+	/**
+	 * Keeps only the triads whose nearest vertices are the closest ones, using a partial selection 
+	 * instead of a full sort. The order of the remaining triads is not preserved.
+	 * @param triadCount the number of triads to keep
+	 * @return the number of triads removed
+	 */
+	public int retainNearest(int triadCount){
+		triadCount = Math.max(0, triadCount);
+		if(triadCount >= count)
+			return 0;
+		int removed = count - triadCount;
+		if(triadCount > 0){
+			if(nearestDistances.length < count){
+				nearestDistances = new float[x.length / 3];
+			}
+			for(int i=0; i<count; i++){
+				int offset = 3*i;
+				nearestDistances[i] = Math.min(distances[offset], Math.min(distances[offset+1], distances[offset+2]));
+			}
+			selectNth(0, count - 1, triadCount - 1);
+		}
+		count = triadCount;
+		return removed;
+	}
+
+	/**
+	 * Partially sorts the triads such that the triad at position n has the n-th smallest nearest distance, 
+	 * all triads before it have smaller or equal ones and all after it larger or equal ones.
+	 */
+	private void selectNth(int left, int right, int n){
+		while(right > left){
+			float pivot = nearestDistances[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while(i <= j){
+				while(nearestDistances[i] < pivot)
+					i++;
+				while(nearestDistances[j] > pivot)
+					j--;
+				if(i <= j){
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if(n <= j){
+				right = j;
+			} else if(n >= i){
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j){
+		float nearest = nearestDistances[i];
+		nearestDistances[i] = nearestDistances[j];
+		nearestDistances[j] = nearest;
+		for(int v=0; v<3; v++){
+			int a = 3*i+v;
+			int b = 3*j+v;
+			int tmp = x[a]; x[a] = x[b]; x[b] = tmp;
+			tmp = y[a]; y[a] = y[b]; y[b] = tmp;
+			tmp = subpixelX[a]; subpixelX[a] = subpixelX[b]; subpixelX[b] = tmp;
+			tmp = subpixelY[a]; subpixelY[a] = subpixelY[b]; subpixelY[b] = tmp;
+			tmp = colors[a]; colors[a] = colors[b]; colors[b] = tmp;
+			float distance = distances[a]; distances[a] = distances[b]; distances[b] = distance;
+		}
+	}
+
+	private void ensureCapacity(int triadCount){
+		if(3*triadCount <= x.length)
+			return;
+		int capacity = Math.max(3*triadCount, 2*x.length);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		subpixelX = Arrays.copyOf(subpixelX, capacity);
+		subpixelY = Arrays.copyOf(subpixelY, capacity);
+		colors = Arrays.copyOf(colors, capacity);
+		distances = Arrays.copyOf(distances, capacity);
+	}
+
+	int[] getXArray() {
+		return x;
+	}
+
+	int[] getYArray() {
+		return y;
+	}
+
+	int[] getSubpixelXArray() {
+		return subpixelX;
+	}
+
+	int[] getSubpixelYArray() {
+		return subpixelY;
+	}
+
+	int[] getColorsArray() {
+		return colors;
+	}
+
+	float[] getDistancesArray() {
+		return distances;
+	}
+}
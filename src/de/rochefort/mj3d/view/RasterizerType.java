@@ -0,0 +1,13 @@
+package de.rochefort.mj3d.view;
+
+public enum RasterizerType {
+	/**
+	 * Splits each triad into a flat-bottomed and a flat-topped part and fills them line by line.
+	 */
+	SCANLINE, 
+	/**
+	 * Evaluates the three edge functions of each triad in fixed point with sub-pixel precision, 
+	 * block by block. Every pixel is written at most once per triad, following a top-left fill rule.
+	 */
+	HALF_SPACE
+}
@@ -0,0 +1,66 @@
+package de.rochefort.mj3d.view;
+
+import java.util.Random;
+
+/**
+ * Measures the span throughput of the scalar and, if available, the vectorized {@link SpanFiller}, 
+ * as well as of the scalar one with fixed point incremental color interpolation.
+ * Run with --add-modules jdk.incubator.vector to include the vectorized one.
+ * Arguments: span length (default 256), number of spans per round (default 500000)
+ */
+public class SpanFillBenchmark {
+	private static final int WIDTH = 1024;
+	private static final int HEIGHT = 768;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		int spanLength = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int spanCount = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+		spanLength = Math.min(spanLength, WIDTH);
+		SpanFiller[] fillers;
+		if(SpanFiller.getDefault().isVectorized()){
+			fillers = new SpanFiller[]{new SpanFiller(), SpanFiller.getDefault()};
+		} else {
+			System.out.println("jdk.incubator.vector not available, measuring the scalar span filler only");
+			fillers = new SpanFiller[]{new SpanFiller()};
+		}
+		for(SpanFiller filler : fillers){
+			run(filler, false, spanLength, spanCount);
+		}
+		run(new SpanFiller(), true, spanLength, spanCount);
+	}
+
+	private static void run(SpanFiller filler, boolean incremental, int spanLength, int spanCount) {
+		int[] colors = new int[WIDTH * HEIGHT];
+		float[] distances = new float[WIDTH * HEIGHT];
+		int[] generations = new int[WIDTH * HEIGHT];
+		Random random = new Random(1);
+		int[] offsets = new int[spanCount];
+		float[] startDistances = new float[spanCount];
+		for(int span=0; span<spanCount; span++){
+			offsets[span] = random.nextInt(HEIGHT) * WIDTH + random.nextInt(WIDTH - spanLength + 1);
+			startDistances[span] = random.nextFloat() * 1000;
+		}
+		float distanceSlope = 0.5f / spanLength;
+		float colorSlope = 1f / spanLength;
+		String name = incremental ? "scalar fixed point incremental" : filler.isVectorized() ? "vectorized" : "scalar";
+		for(int round=0; round<ROUNDS; round++){
+			// every round is a new frame, so the first spans pass the depth test and later ones are partly hidden
+			int generation = round + 1;
+			long start = System.nanoTime();
+			for(int span=0; span<spanCount; span++){
+				if(incremental){
+					filler.fillSpanIncremental(colors, distances, generations, generation, offsets[span], 0, spanLength,
+							startDistances[span], distanceSlope, 0xff20a040, 0xffe0c080, 0, colorSlope, false, 0xff000000, null);
+				} else {
+					filler.fillSpan(colors, distances, generations, generation, offsets[span], 0, spanLength,
+							startDistances[span], distanceSlope, 0xff20a040, 0xffe0c080, 0, colorSlope, false, 0xff000000, null);
+				}
+			}
+			long nanos = System.nanoTime() - start;
+			double spansPerSecond = spanCount * 1e9 / nanos;
+			System.out.println(String.format("%s, round %d: %.2f M spans/s, %.1f M pixels/s, %.1f ns/span",
+					name, round, spansPerSecond / 1e6, spansPerSecond * spanLength / 1e6, (double)nanos / spanCount));
+		}
+	}
+}
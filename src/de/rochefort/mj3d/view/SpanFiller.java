@@ -0,0 +1,114 @@
+package de.rochefort.mj3d.view;
+
+/**
+ * Fills one horizontal span of a {@link ZBuffer}: depth test against the current generation,
+ * depth write and linear colour interpolation between two colours.
+ * This implementation handles one pixel at a time. If the optional source root src-vector has been compiled 
+ * and the module jdk.incubator.vector is available at runtime, {@link #getDefault()} returns a subclass 
+ * that handles several pixels per iteration.
+ * Both produce identical results, since the distance and colour ratio of every pixel are computed
+ * from its position within the span instead of being accumulated.
+ */
+class SpanFiller {
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+	private static final String VECTOR_SPAN_FILLER = "de.rochefort.mj3d.view.VectorSpanFiller";
+	private static final SpanFiller DEFAULT = create();
+
+	/**
+	 * @return the vectorized span filler if it has been compiled, the vector module has been added to the boot layer
+	 * (e.g. using --add-modules jdk.incubator.vector) and the system property mj3d.scalarSpans is not set,
+	 * the scalar one otherwise
+	 */
+	static SpanFiller getDefault() {
+		return DEFAULT;
+	}
+
+	private static SpanFiller create() {
+		if(!Boolean.getBoolean("mj3d.scalarSpans") && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()){
+			try {
+				return (SpanFiller)Class.forName(VECTOR_SPAN_FILLER).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// the vectorized filler is optional, see ZBuffer#isVectorizedSpanFilling()
+			}
+		}
+		return new SpanFiller();
+	}
+
+	/**
+	 * Fills the pixels at positions from..length-1 of a span starting at the given index.
+	 * Pixel i gets the distance distance + i * distanceSlope and the colour between color1 and color2 at
+	 * the ratio colorRatio + i * colorSlope, but only if it has no distance in the current generation yet
+	 * or a larger one.
+	 * @param colors
+	 * @param distances
+	 * @param generations
+	 * @param generation
+	 * @param offset the index of the first pixel of the span
+	 * @param from the first position to fill
+	 * @param length the number of pixels in the span
+	 * @param distance
+	 * @param distanceSlope
+	 * @param color1
+	 * @param color2
+	 * @param colorRatio
+	 * @param colorSlope
+	 * @param wireframe if true, the first and the last pixel of the span are filled with the border color
+	 * @param borderColor
+	 * @param fog the fog to apply to each pixel or null
+	 */
+	void fillSpan(int[] colors, float[] distances, int[] generations, int generation, int offset, int from, int length,
+			float distance, float distanceSlope, int color1, int color2, float colorRatio, float colorSlope, boolean wireframe, int borderColor, FogTable fog) {
+		for(int i = from; i < length; i++){
+			int index = offset + i;
+			float pixelDistance = (float)i * distanceSlope + distance;
+			if(generations[index]!=generation || distances[index]>pixelDistance){
+				distances[index]=pixelDistance;
+				generations[index]=generation;
+				int color = borderColor;
+				if(!wireframe || i > 0 && i < length - 1){
+					color = ColorBlender.blendRGB(color1, color2, (float)i * colorSlope + colorRatio);
+					if(fog != null){
+						color = fog.apply(color, pixelDistance);
+					}
+				}
+				colors[index]=color;
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #fillSpan(int[], float[], int[], int, int, int, int, float, float, int, int, float, float, boolean, int, FogTable)}, 
+	 * but steps through the colors incrementally in fixed point, see {@link ColorGradient}.
+	 * The channels are kept in local variables, so no gradient object is needed per span.
+	 */
+	void fillSpanIncremental(int[] colors, float[] distances, int[] generations, int generation, int offset, int from, int length,
+			float distance, float distanceSlope, int color1, int color2, float colorRatio, float colorSlope, boolean wireframe, int borderColor, FogTable fog) {
+		int redStep = ColorGradient.channelStep(color1, color2, 16, colorSlope);
+		int greenStep = ColorGradient.channelStep(color1, color2, 8, colorSlope);
+		int blueStep = ColorGradient.channelStep(color1, color2, 0, colorSlope);
+		int red = ColorGradient.channel(color1, color2, 16, colorRatio) + from * redStep;
+		int green = ColorGradient.channel(color1, color2, 8, colorRatio) + from * greenStep;
+		int blue = ColorGradient.channel(color1, color2, 0, colorRatio) + from * blueStep;
+		for(int i = from; i < length; i++){
+			int index = offset + i;
+			float pixelDistance = (float)i * distanceSlope + distance;
+			if(generations[index]!=generation || distances[index]>pixelDistance){
+				distances[index]=pixelDistance;
+				generations[index]=generation;
+				if(!wireframe || i > 0 && i < length - 1){
+					int color = ColorGradient.pack(red, green, blue);
+					colors[index] = fog == null ? color : fog.apply(color, pixelDistance);
+				} else {
+					colors[index] = borderColor;
+				}
+			}
+			red += redStep;
+			green += greenStep;
+			blue += blueStep;
+		}
+	}
+
+	boolean isVectorized() {
+		return false;
+	}
+}
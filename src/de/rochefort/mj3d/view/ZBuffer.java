@@ -2,28 +2,274 @@ package de.rochefort.mj3d.view;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class ZBuffer {
+	public static final int BLOCK_SIZE = 8;
+	public static final int COARSE_BLOCK_SIZE = 64;
+	// tiles are aligned to coarse blocks, so concurrently rasterized tiles never share a block of the depth pyramid
+	public static final int TILE_HEIGHT = COARSE_BLOCK_SIZE;
+	private static final int BLOCK_SHIFT = 3;
+	private static final int COARSE_BLOCK_SHIFT = 6;
+	// keeps all products in the edge functions of the half-space rasterizer within the range of long
+	private static final int MAX_HALF_SPACE_COORDINATE = 1 << 26;
 	private final BufferedImage bufferedImage;
 	private final int dataElements[];
 	private final float[] distanceArray;
+	private final int[] depthGenerations;
+	private int generation = 1;
 	private final int width;
 	private final int height;
 	private final int black = Color.BLACK.getRGB();
+	private final int tileCount;
+	private final int[][] tileTriads;
+	private final int[] tileTriadCounts;
+	private RasterizerType rasterizerType = RasterizerType.SCANLINE;
+	private ColorInterpolation colorInterpolation = ColorInterpolation.FLOAT;
+	private FogMode fogMode = FogMode.PER_VERTEX;
+	private final FogTable fogTable = new FogTable();
+	// the fog table to apply to every written pixel, or null if fog is applied per vertex or not at all
+	private FogTable pixelFog;
+	private final SpanFiller spanFiller = SpanFiller.getDefault();
+	// reusable state for triads rasterized by the calling thread, and for each tile rasterized by a worker
+	private final RasterScratch scratch = new RasterScratch();
+	private final RasterScratch[] tileScratches;
+	// depth pyramid: maximum distance per block, recomputed lazily for blocks that have been drawn to
+	private final int blocksPerRow;
+	private final int coarseBlocksPerRow;
+	private final float[] blockMaxDistances;
+	private final boolean[] dirtyBlocks;
+	private final float[] coarseBlockMaxDistances;
+	private final boolean[] dirtyCoarseBlocks;
 	public ZBuffer(int width, int height) {
-		bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		dataElements = (int[])bufferedImage.getRaster().getDataElements(0, 0, width, height, null);
-		distanceArray = new float[dataElements.length];
-		java.util.Arrays.fill(distanceArray, Float.MAX_VALUE);
+		this(new int[width * height], width, height);
+	}
+	
+	/**
+	 * Creates a z-buffer that renders directly into the given array. 
+	 * Pixel (x, y) is stored at index y*width+x as ARGB.
+	 * @param pixels an array of at least width*height elements
+	 * @param width
+	 * @param height
+	 */
+	public ZBuffer(int[] pixels, int width, int height) {
+		if(width < 1 || height < 1 || pixels.length < width * height){
+			throw new IllegalArgumentException("Cannot render "+width+"x"+height+" pixels into an array of length "+pixels.length);
+		}
+		// render directly into the pixel array backing the image, so no copies are needed per frame
+		DataBufferInt dataBuffer = new DataBufferInt(pixels, width * height);
+		ColorModel colorModel = ColorModel.getRGBdefault();
+		WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width, 
+				((DirectColorModel)colorModel).getMasks(), null);
+		bufferedImage = new BufferedImage(colorModel, raster, false, null);
+		dataElements = pixels;
+		distanceArray = new float[width * height];
+		depthGenerations = new int[width * height];
 		this.width = width;
 		this.height = height;
+		tileCount = (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+		tileTriads = new int[tileCount][16];
+		tileTriadCounts = new int[tileCount];
+		tileScratches = new RasterScratch[tileCount];
+		for(int tile=0; tile<tileCount; tile++){
+			tileScratches[tile] = new RasterScratch();
+		}
+		blocksPerRow = (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		coarseBlocksPerRow = (width + COARSE_BLOCK_SIZE - 1) >> COARSE_BLOCK_SHIFT;
+		int blockRows = (height + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int coarseBlockRows = (height + COARSE_BLOCK_SIZE - 1) >> COARSE_BLOCK_SHIFT;
+		blockMaxDistances = new float[blocksPerRow * blockRows];
+		dirtyBlocks = new boolean[blockMaxDistances.length];
+		coarseBlockMaxDistances = new float[coarseBlocksPerRow * coarseBlockRows];
+		dirtyCoarseBlocks = new boolean[coarseBlockMaxDistances.length];
+		Arrays.fill(blockMaxDistances, Float.MAX_VALUE);
+		Arrays.fill(coarseBlockMaxDistances, Float.MAX_VALUE);
 	}
 	
 	public BufferedImage getBufferedImage() {
-		bufferedImage.getRaster().setDataElements(0, 0, width, height, dataElements);
 		return bufferedImage;
 	}
 	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * @return true if spans are filled with the Vector API, see the optional source root src-vector, 
+	 * false if the scalar fallback is used
+	 */
+	public boolean isVectorizedSpanFilling() {
+		return spanFiller.isVectorized();
+	}
+	
+	public RasterizerType getRasterizerType() {
+		return rasterizerType;
+	}
+	
+	/**
+	 * Selects the algorithm used to fill triads. May be changed between frames.
+	 * @param rasterizerType
+	 */
+	public void setRasterizerType(RasterizerType rasterizerType) {
+		this.rasterizerType = rasterizerType;
+	}
+	
+	public ColorInterpolation getColorInterpolation() {
+		return colorInterpolation;
+	}
+	
+	/**
+	 * Selects how the scanline rasterizer interpolates vertex colors. May be changed between frames.
+	 * @param colorInterpolation
+	 */
+	public void setColorInterpolation(ColorInterpolation colorInterpolation) {
+		this.colorInterpolation = colorInterpolation;
+	}
+	
+	public FogMode getFogMode() {
+		return fogMode;
+	}
+	
+	/**
+	 * Selects whether fog is computed per vertex or per pixel. May be changed between frames.
+	 * @param fogMode
+	 */
+	public void setFogMode(FogMode fogMode) {
+		this.fogMode = fogMode;
+	}
+	
+	/**
+	 * Sets up the per pixel fog for the following triads, rebuilding the fog table if needed.
+	 * @return whether the fog has to be applied to the vertex colors instead
+	 */
+	private boolean prepareFog(int bgColor, float maxDistance, boolean fogEffect){
+		if(fogEffect && fogMode == FogMode.PER_PIXEL){
+			fogTable.update(bgColor, maxDistance);
+			pixelFog = fogTable;
+			return false;
+		}
+		pixelFog = null;
+		return fogEffect;
+	}
+	
+	/**
+	 * Prepares the buffer for a new frame by filling it with the background color and resetting all distances.
+	 * The distances are not touched: a distance is only valid if its generation matches the current one, 
+	 * so advancing the generation invalidates all of them at once.
+	 * @param backgroundColor
+	 */
+	public void clear(int backgroundColor) {
+		setBackgroundColor(backgroundColor);
+		if(generation == Integer.MAX_VALUE){
+			Arrays.fill(depthGenerations, 0);
+			generation = 0;
+		}
+		generation++;
+		Arrays.fill(blockMaxDistances, Float.MAX_VALUE);
+		Arrays.fill(dirtyBlocks, false);
+		Arrays.fill(coarseBlockMaxDistances, Float.MAX_VALUE);
+		Arrays.fill(dirtyCoarseBlocks, false);
+	}
+	
+	/**
+	 * Checks against the depth pyramid whether anything at or beyond the given distance could still become 
+	 * visible within the given screen rectangle. The check is conservative: it may report a rectangle as 
+	 * visible although it is hidden, but never the other way round.
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @param minDistance the smallest distance that will be drawn within the rectangle
+	 * @return true if every pixel in the rectangle already holds a distance not larger than minDistance
+	 */
+	public boolean isOccluded(int minX, int minY, int maxX, int maxY, float minDistance) {
+		minX = Math.max(0, minX);
+		minY = Math.max(0, minY);
+		maxX = Math.min(width-1, maxX);
+		maxY = Math.min(height-1, maxY);
+		if(minX > maxX || minY > maxY){
+			return true;
+		}
+		for(int coarseRow = minY >> COARSE_BLOCK_SHIFT; coarseRow <= maxY >> COARSE_BLOCK_SHIFT; coarseRow++){
+			for(int coarseCol = minX >> COARSE_BLOCK_SHIFT; coarseCol <= maxX >> COARSE_BLOCK_SHIFT; coarseCol++){
+				if(getCoarseBlockMaxDistance(coarseRow, coarseCol) <= minDistance){
+					continue;
+				}
+				int firstRow = Math.max(minY, coarseRow << COARSE_BLOCK_SHIFT) >> BLOCK_SHIFT;
+				int lastRow = Math.min(maxY, ((coarseRow + 1) << COARSE_BLOCK_SHIFT) - 1) >> BLOCK_SHIFT;
+				int firstCol = Math.max(minX, coarseCol << COARSE_BLOCK_SHIFT) >> BLOCK_SHIFT;
+				int lastCol = Math.min(maxX, ((coarseCol + 1) << COARSE_BLOCK_SHIFT) - 1) >> BLOCK_SHIFT;
+				for(int blockRow = firstRow; blockRow <= lastRow; blockRow++){
+					for(int blockCol = firstCol; blockCol <= lastCol; blockCol++){
+						if(getBlockMaxDistance(blockRow, blockCol) > minDistance){
+							return false;
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+	
+	private float getCoarseBlockMaxDistance(int coarseRow, int coarseCol) {
+		int coarseBlock = coarseRow * coarseBlocksPerRow + coarseCol;
+		if(dirtyCoarseBlocks[coarseBlock]){
+			int ratio = COARSE_BLOCK_SIZE / BLOCK_SIZE;
+			int lastRow = Math.min((coarseRow + 1) * ratio, blockMaxDistances.length / blocksPerRow);
+			int lastCol = Math.min((coarseCol + 1) * ratio, blocksPerRow);
+			float max = 0;
+			for(int blockRow = coarseRow * ratio; blockRow < lastRow; blockRow++){
+				for(int blockCol = coarseCol * ratio; blockCol < lastCol; blockCol++){
+					max = Math.max(max, getBlockMaxDistance(blockRow, blockCol));
+				}
+			}
+			coarseBlockMaxDistances[coarseBlock] = max;
+			dirtyCoarseBlocks[coarseBlock] = false;
+		}
+		return coarseBlockMaxDistances[coarseBlock];
+	}
+	
+	private float getBlockMaxDistance(int blockRow, int blockCol) {
+		int block = blockRow * blocksPerRow + blockCol;
+		if(dirtyBlocks[block]){
+			int lastY = Math.min((blockRow + 1) << BLOCK_SHIFT, height);
+			int lastX = Math.min((blockCol + 1) << BLOCK_SHIFT, width);
+			float max = 0;
+			for(int y = blockRow << BLOCK_SHIFT; y < lastY; y++){
+				for(int index = getDataElementsIndex(blockCol << BLOCK_SHIFT, y); index < y * width + lastX; index++){
+					max = Math.max(max, depthGenerations[index] == generation ? distanceArray[index] : Float.MAX_VALUE);
+				}
+			}
+			blockMaxDistances[block] = max;
+			dirtyBlocks[block] = false;
+		}
+		return blockMaxDistances[block];
+	}
+	
+	private void markBlocksDirty(int xmin, int xmax, int y) {
+		int blockRowOffset = (y >> BLOCK_SHIFT) * blocksPerRow;
+		for(int blockCol = xmin >> BLOCK_SHIFT; blockCol <= xmax >> BLOCK_SHIFT; blockCol++){
+			dirtyBlocks[blockRowOffset + blockCol] = true;
+		}
+		int coarseBlockRowOffset = (y >> COARSE_BLOCK_SHIFT) * coarseBlocksPerRow;
+		for(int coarseCol = xmin >> COARSE_BLOCK_SHIFT; coarseCol <= xmax >> COARSE_BLOCK_SHIFT; coarseCol++){
+			dirtyCoarseBlocks[coarseBlockRowOffset + coarseCol] = true;
+		}
+	}
+	
 //	public void fillTriad(Polygon polygon, int color, int bgColor, float[] distance, float maxDistance, boolean fogEffect){
 //		int rgb;
 //		if(fogEffect){
@@ -62,6 +308,106 @@ public class ZBuffer {
 	 * @param fogEffect
 	 */
 	public void fillTriad(int[]x, int[]y, int[] pointColors, int bgColor, float[] distance, float maxDistance, boolean fogEffect, boolean wireframe){
+		fogEffect = prepareFog(bgColor, maxDistance, fogEffect);
+		if(rasterizerType == RasterizerType.HALF_SPACE && isInHalfSpaceRange(x, y)){
+			int[] subpixelX = scratch.subpixelX;
+			int[] subpixelY = scratch.subpixelY;
+			for(int v=0; v<3; v++){
+				subpixelX[v] = x[v] << ProjectedTriads.SUBPIXEL_BITS;
+				subpixelY[v] = y[v] << ProjectedTriads.SUBPIXEL_BITS;
+			}
+			fillTriadHalfSpace(x, y, subpixelX, subpixelY, pointColors, bgColor, distance, maxDistance, fogEffect, wireframe, 0, height-1, scratch);
+		}
+		else{
+			fillTriad(x, y, pointColors, bgColor, distance, maxDistance, fogEffect, wireframe, 0, height-1, scratch);
+		}
+	}
+
+	/**
+	 * Rasterizes all triads of the given batch in submission order. If a pool is given, the screen is split 
+	 * into horizontal tiles of {@link #TILE_HEIGHT} rows, each triad is binned into the tiles it overlaps 
+	 * and the tiles are rasterized concurrently. Every tile only writes to its own rows of the color and 
+	 * distance arrays, so no locking is needed, and the result is pixel-identical to the serial path.
+	 * @param triads
+	 * @param bgColor
+	 * @param maxDistance
+	 * @param fogEffect
+	 * @param wireframe
+	 * @param pool the pool to rasterize the tiles on or null to rasterize serially
+	 */
+	public void fillTriads(ProjectedTriads triads, int bgColor, float maxDistance, boolean fogEffect, boolean wireframe, ForkJoinPool pool){
+		fogEffect = prepareFog(bgColor, maxDistance, fogEffect);
+		if(pool == null || pool.getParallelism() < 2 || tileCount < 2){
+			fillTriads(triads, null, triads.size(), bgColor, maxDistance, fogEffect, wireframe, 0, height-1, scratch);
+			return;
+		}
+		binTriads(triads);
+		List<TileRasterTask> tasks = new ArrayList<TileRasterTask>(tileCount);
+		for(int tile=0; tile<tileCount; tile++){
+			if(tileTriadCounts[tile] > 0){
+				tasks.add(new TileRasterTask(triads, tile, bgColor, maxDistance, fogEffect, wireframe));
+			}
+		}
+		pool.invoke(new TileRasterBatch(tasks));
+	}
+	
+	private void binTriads(ProjectedTriads triads){
+		Arrays.fill(tileTriadCounts, 0);
+		int[] y = triads.getYArray();
+		for(int triad=0; triad<triads.size(); triad++){
+			int offset = 3*triad;
+			int minY = Math.min(y[offset], Math.min(y[offset+1], y[offset+2]));
+			int maxY = Math.max(y[offset], Math.max(y[offset+1], y[offset+2]));
+			if(maxY < 0 || minY > height-1)
+				continue;
+			int firstTile = Math.max(0, minY) / TILE_HEIGHT;
+			// one row of slack, since the half-space rasterizer rounds sub-pixel coordinates down instead of towards zero
+			int lastTile = Math.min(height-1, maxY+1) / TILE_HEIGHT;
+			for(int tile=firstTile; tile<=lastTile; tile++){
+				int count = tileTriadCounts[tile];
+				if(count == tileTriads[tile].length){
+					tileTriads[tile] = Arrays.copyOf(tileTriads[tile], 2*count);
+				}
+				tileTriads[tile][count] = triad;
+				tileTriadCounts[tile] = count+1;
+			}
+		}
+	}
+	
+	private void fillTriads(ProjectedTriads triads, int[] triadIndices, int count, int bgColor, float maxDistance, boolean fogEffect, boolean wireframe, int minRow, int maxRow, RasterScratch scratch){
+		int[] allX = triads.getXArray();
+		int[] allY = triads.getYArray();
+		int[] allSubpixelX = triads.getSubpixelXArray();
+		int[] allSubpixelY = triads.getSubpixelYArray();
+		int[] allColors = triads.getColorsArray();
+		float[] allDistances = triads.getDistancesArray();
+		boolean halfSpace = rasterizerType == RasterizerType.HALF_SPACE;
+		int[] x = scratch.x;
+		int[] y = scratch.y;
+		int[] subpixelX = scratch.subpixelX;
+		int[] subpixelY = scratch.subpixelY;
+		int[] c = scratch.colors;
+		float[] distances = scratch.distances;
+		for(int i=0; i<count; i++){
+			int offset = 3*(triadIndices == null ? i : triadIndices[i]);
+			for(int v=0; v<3; v++){
+				x[v] = allX[offset+v];
+				y[v] = allY[offset+v];
+				subpixelX[v] = allSubpixelX[offset+v];
+				subpixelY[v] = allSubpixelY[offset+v];
+				c[v] = allColors[offset+v];
+				distances[v] = allDistances[offset+v];
+			}
+			if(halfSpace){
+				fillTriadHalfSpace(x, y, subpixelX, subpixelY, c, bgColor, distances, maxDistance, fogEffect, wireframe, minRow, maxRow, scratch);
+			}
+			else{
+				fillTriad(x, y, c, bgColor, distances, maxDistance, fogEffect, wireframe, minRow, maxRow, scratch);
+			}
+		}
+	}
+
+	private void fillTriad(int[]x, int[]y, int[] pointColors, int bgColor, float[] distance, float maxDistance, boolean fogEffect, boolean wireframe, int minRow, int maxRow, RasterScratch scratch){
 //		PerformanceTimer.stopInterimTime("calling to filling Triad");
 //		for(int pc=0; pc<pointColors.length; pc++){
 //			Color dummy = new Color(pointColors[pc]);
@@ -99,7 +445,7 @@ public class ZBuffer {
 				minY = y[i];
 			}
 		}
-		if(maxX<0 || maxY<0 || minX > width-1 || minY > height -1)
+		if(maxX<0 || maxY<minRow || minX > width-1 || minY > maxRow)
 			return;
 		
 		switch (indexBottom){
@@ -171,13 +517,13 @@ public class ZBuffer {
 		if(y[indexTop] == y[indexBottom]){
 			int x1 = (int)Math.max(0, Math.min(x[0], Math.min(x[0], x[2])));
 			int x2 = (int)Math.min(width-1, Math.max(x[0], Math.max(x[0], x[2])));
-			drawHorizontalLine(x1, x2, y[indexBottom], pointColors[indexTop], pointColors[indexBottom], bgColor, distance[indexTop], distance[indexBottom], maxDistance, wireframe);
+			drawHorizontalLine(x1, x2, y[indexBottom], pointColors[indexTop], pointColors[indexBottom], bgColor, distance[indexTop], distance[indexBottom], maxDistance, wireframe, minRow, maxRow);
 		}
 		else if (y[indexMid] == y[indexBottom]){
-		  fillBottomFlatTriangle(x[indexTop], x[indexMid], x[indexBottom], y[indexTop], y[indexMid], y[indexBottom], pointColors[indexTop], pointColors[indexMid], pointColors[indexBottom], bgColor, distance[indexTop], distance[indexMid], distance[indexBottom], maxDistance, wireframe);
+		  fillBottomFlatTriangle(x[indexTop], x[indexMid], x[indexBottom], y[indexTop], y[indexMid], y[indexBottom], pointColors[indexTop], pointColors[indexMid], pointColors[indexBottom], bgColor, distance[indexTop], distance[indexMid], distance[indexBottom], maxDistance, wireframe, minRow, maxRow, scratch);
 		}
 		else if (y[indexMid] == y[indexTop]){
-		  fillTopFlatTriangle(x[indexTop],x[indexMid] , x[indexBottom], y[indexTop], y[indexMid], y[indexBottom], pointColors[indexTop], pointColors[indexMid], pointColors[indexBottom], bgColor, distance[indexTop], distance[indexMid], distance[indexBottom], maxDistance, wireframe);
+		  fillTopFlatTriangle(x[indexTop],x[indexMid] , x[indexBottom], y[indexTop], y[indexMid], y[indexBottom], pointColors[indexTop], pointColors[indexMid], pointColors[indexBottom], bgColor, distance[indexTop], distance[indexMid], distance[indexBottom], maxDistance, wireframe, minRow, maxRow, scratch);
 		}
 		else{
 			float ratio = ((float)(y[indexMid] - y[indexTop]) / (float)(y[indexBottom] - y[indexTop]));
@@ -190,18 +536,228 @@ public class ZBuffer {
 //			dataElements[getDataElementsIndex(X4, Y4)] = 0;
 //			distanceArray[getDataElementsIndex(X4, Y4)] = 0;
 			if(X4>x[indexMid]){
-				fillBottomFlatTriangle(x[indexTop], x[indexMid], X4, y[indexTop], y[indexMid], Y4, pointColors[indexTop], pointColors[indexMid], color4, bgColor, distance[indexTop], distance[indexMid], dist4, maxDistance, wireframe);
-				fillTopFlatTriangle(x[indexMid], X4, x[indexBottom], y[indexMid], Y4, y[indexBottom], pointColors[indexMid], color4, pointColors[indexBottom], bgColor, distance[indexMid], dist4, distance[indexBottom], maxDistance, wireframe);
+				fillBottomFlatTriangle(x[indexTop], x[indexMid], X4, y[indexTop], y[indexMid], Y4, pointColors[indexTop], pointColors[indexMid], color4, bgColor, distance[indexTop], distance[indexMid], dist4, maxDistance, wireframe, minRow, maxRow, scratch);
+				fillTopFlatTriangle(x[indexMid], X4, x[indexBottom], y[indexMid], Y4, y[indexBottom], pointColors[indexMid], color4, pointColors[indexBottom], bgColor, distance[indexMid], dist4, distance[indexBottom], maxDistance, wireframe, minRow, maxRow, scratch);
 			}
 			else{
-				fillBottomFlatTriangle(x[indexTop], X4, x[indexMid], y[indexTop], Y4, y[indexMid], pointColors[indexTop], color4, pointColors[indexMid], bgColor, distance[indexTop], dist4, distance[indexMid], maxDistance, wireframe);
-				fillTopFlatTriangle(X4, x[indexMid], x[indexBottom], Y4, y[indexMid], y[indexBottom], color4, pointColors[indexMid], pointColors[indexBottom], bgColor, dist4, distance[indexMid], distance[indexBottom], maxDistance, wireframe);
+				fillBottomFlatTriangle(x[indexTop], X4, x[indexMid], y[indexTop], Y4, y[indexMid], pointColors[indexTop], color4, pointColors[indexMid], bgColor, distance[indexTop], dist4, distance[indexMid], maxDistance, wireframe, minRow, maxRow, scratch);
+				fillTopFlatTriangle(X4, x[indexMid], x[indexBottom], Y4, y[indexMid], y[indexBottom], color4, pointColors[indexMid], pointColors[indexBottom], bgColor, dist4, distance[indexMid], distance[indexBottom], maxDistance, wireframe, minRow, maxRow, scratch);
 			}
 		}
 //		PerformanceTimer.stopInterimTime("filling Triad");
 	}
 
-	private void fillBottomFlatTriangle(int x1, int x2, int x3, int y1, int y2, int y3, int color1, int color2, int color3, int bgColor, float distance1, float distance2, float distance3, float maxDistance, boolean wireframe){
+	/**
+	 * Fills a triad using fixed-point edge functions, evaluated on blocks of {@link #BLOCK_SIZE}x{@link #BLOCK_SIZE} pixels.
+	 * Blocks entirely outside of one edge are skipped, blocks entirely inside of all edges are filled without 
+	 * per-pixel edge tests. Pixels are sampled at their centers. A pixel center exactly on an edge belongs to 
+	 * the triad only if that edge is a top or a left edge, so pixels on edges shared by two triads are written once.
+	 * Distances and colors are interpolated with plane equations. Triads with coordinates too large for the 
+	 * fixed-point arithmetic are handed to the scanline rasterizer.
+	 */
+	private void fillTriadHalfSpace(int[] x, int[] y, int[] subpixelX, int[] subpixelY, int[] pointColors, int bgColor, float[] distance, float maxDistance, boolean fogEffect, boolean wireframe, int minRow, int maxRow, RasterScratch scratch){
+		for(int v=0; v<3; v++){
+			if(!isHalfSpaceCoordinate(subpixelX[v]) || !isHalfSpaceCoordinate(subpixelY[v])){
+				fillTriad(x, y, pointColors, bgColor, distance, maxDistance, fogEffect, wireframe, minRow, maxRow, scratch);
+				return;
+			}
+		}
+		long x0 = subpixelX[0];
+		long y0 = subpixelY[0];
+		long x1 = subpixelX[1];
+		long y1 = subpixelY[1];
+		long x2 = subpixelX[2];
+		long y2 = subpixelY[2];
+		int v1 = 1;
+		int v2 = 2;
+		long area = (x1-x0)*(y2-y0) - (x2-x0)*(y1-y0);
+		if(area == 0)
+			return;
+		if(area < 0){
+			// enforce a winding for which the inside of every edge is where its edge function is positive
+			v1 = 2;
+			v2 = 1;
+			long tmp = x1; x1 = x2; x2 = tmp;
+			tmp = y1; y1 = y2; y2 = tmp;
+			area = -area;
+		}
+		int minPixelX = Math.max(0, (int)(Math.min(x0, Math.min(x1, x2)) >> ProjectedTriads.SUBPIXEL_BITS));
+		int maxPixelX = Math.min(width-1, (int)(Math.max(x0, Math.max(x1, x2)) >> ProjectedTriads.SUBPIXEL_BITS));
+		int minPixelY = Math.max(minRow, (int)(Math.min(y0, Math.min(y1, y2)) >> ProjectedTriads.SUBPIXEL_BITS));
+		int maxPixelY = Math.min(maxRow, (int)(Math.max(y0, Math.max(y1, y2)) >> ProjectedTriads.SUBPIXEL_BITS));
+		if(minPixelX > maxPixelX || minPixelY > maxPixelY)
+			return;
+		
+		int color0 = getColorWithFogEffect(pointColors[0], bgColor, distance[0], maxDistance, fogEffect);
+		int color1 = getColorWithFogEffect(pointColors[v1], bgColor, distance[v1], maxDistance, fogEffect);
+		int color2 = getColorWithFogEffect(pointColors[v2], bgColor, distance[v2], maxDistance, fogEffect);
+		
+		// edge functions E(px, py) = stepX * px + stepY * py + offset for the pixel centers, 
+		// edge 0 runs from vertex 1 to 2, edge 1 from 2 to 0 and edge 2 from 0 to 1
+		long stepX0 = (y1-y2) * ProjectedTriads.SUBPIXEL_SCALE;
+		long stepX1 = (y2-y0) * ProjectedTriads.SUBPIXEL_SCALE;
+		long stepX2 = (y0-y1) * ProjectedTriads.SUBPIXEL_SCALE;
+		long stepY0 = (x2-x1) * ProjectedTriads.SUBPIXEL_SCALE;
+		long stepY1 = (x0-x2) * ProjectedTriads.SUBPIXEL_SCALE;
+		long stepY2 = (x1-x0) * ProjectedTriads.SUBPIXEL_SCALE;
+		long half = ProjectedTriads.SUBPIXEL_SCALE / 2;
+		long offset0 = (x2-x1) * (half-y1) - (y2-y1) * (half-x1);
+		long offset1 = (x0-x2) * (half-y2) - (y0-y2) * (half-x2);
+		long offset2 = (x1-x0) * (half-y0) - (y1-y0) * (half-x0);
+		// barycentric weights of the vertices as plane equations in pixel units
+		float ex0 = (float)((double)stepX0 / area);
+		float ex1 = (float)((double)stepX1 / area);
+		float ex2 = (float)((double)stepX2 / area);
+		float ey0 = (float)((double)stepY0 / area);
+		float ey1 = (float)((double)stepY1 / area);
+		float ey2 = (float)((double)stepY2 / area);
+		float e00 = (float)((double)offset0 / area);
+		float e01 = (float)((double)offset1 / area);
+		float e02 = (float)((double)offset2 / area);
+		// top-left rule: points on edges that are neither top nor left edges are outside
+		if(!isTopLeftEdge(stepX0, stepY0))
+			offset0--;
+		if(!isTopLeftEdge(stepX1, stepY1))
+			offset1--;
+		if(!isTopLeftEdge(stepX2, stepY2))
+			offset2--;
+		// edge function values below the edge length times one pixel are less than one pixel away from the edge
+		long wireframeThreshold0 = wireframe ? getEdgeLength(stepX0, stepY0) : 0;
+		long wireframeThreshold1 = wireframe ? getEdgeLength(stepX1, stepY1) : 0;
+		long wireframeThreshold2 = wireframe ? getEdgeLength(stepX2, stepY2) : 0;
+		
+		float distance0 = distance[0];
+		float distance1 = distance[v1];
+		float distance2 = distance[v2];
+		float red0 = (color0 >> 16) & 0xff;
+		float red1 = (color1 >> 16) & 0xff;
+		float red2 = (color2 >> 16) & 0xff;
+		float green0 = (color0 >> 8) & 0xff;
+		float green1 = (color1 >> 8) & 0xff;
+		float green2 = (color2 >> 8) & 0xff;
+		float blue0 = color0 & 0xff;
+		float blue1 = color1 & 0xff;
+		float blue2 = color2 & 0xff;
+		float distanceX = ex0 * distance0 + ex1 * distance1 + ex2 * distance2;
+		float distanceY = ey0 * distance0 + ey1 * distance1 + ey2 * distance2;
+		float distanceC = e00 * distance0 + e01 * distance1 + e02 * distance2;
+		float redX = ex0 * red0 + ex1 * red1 + ex2 * red2;
+		float redY = ey0 * red0 + ey1 * red1 + ey2 * red2;
+		float redC = e00 * red0 + e01 * red1 + e02 * red2;
+		float greenX = ex0 * green0 + ex1 * green1 + ex2 * green2;
+		float greenY = ey0 * green0 + ey1 * green1 + ey2 * green2;
+		float greenC = e00 * green0 + e01 * green1 + e02 * green2;
+		float blueX = ex0 * blue0 + ex1 * blue1 + ex2 * blue2;
+		float blueY = ey0 * blue0 + ey1 * blue1 + ey2 * blue2;
+		float blueC = e00 * blue0 + e01 * blue1 + e02 * blue2;
+		
+		int lastStep = BLOCK_SIZE - 1;
+		for(int blockY = minPixelY & ~(BLOCK_SIZE-1); blockY <= maxPixelY; blockY += BLOCK_SIZE){
+			int firstRow = Math.max(blockY, minPixelY);
+			int lastRow = Math.min(blockY + lastStep, maxPixelY);
+			for(int blockX = minPixelX & ~(BLOCK_SIZE-1); blockX <= maxPixelX; blockX += BLOCK_SIZE){
+				long corner0 = stepX0 * blockX + stepY0 * blockY + offset0;
+				long corner1 = stepX1 * blockX + stepY1 * blockY + offset1;
+				long corner2 = stepX2 * blockX + stepY2 * blockY + offset2;
+				if(getBlockMax(corner0, stepX0, stepY0, lastStep) < 0 
+						|| getBlockMax(corner1, stepX1, stepY1, lastStep) < 0 
+						|| getBlockMax(corner2, stepX2, stepY2, lastStep) < 0)
+					continue;
+				boolean accepted = getBlockMin(corner0, stepX0, stepY0, lastStep) >= 0 
+						&& getBlockMin(corner1, stepX1, stepY1, lastStep) >= 0 
+						&& getBlockMin(corner2, stepX2, stepY2, lastStep) >= 0;
+				int firstColumn = Math.max(blockX, minPixelX);
+				int lastColumn = Math.min(blockX + lastStep, maxPixelX);
+				boolean written = false;
+				for(int py = firstRow; py <= lastRow; py++){
+					long edge0 = stepX0 * firstColumn + stepY0 * py + offset0;
+					long edge1 = stepX1 * firstColumn + stepY1 * py + offset1;
+					long edge2 = stepX2 * firstColumn + stepY2 * py + offset2;
+					float pixelDistance = distanceX * firstColumn + distanceY * py + distanceC;
+					float red = redX * firstColumn + redY * py + redC;
+					float green = greenX * firstColumn + greenY * py + greenC;
+					float blue = blueX * firstColumn + blueY * py + blueC;
+					int index = getDataElementsIndex(firstColumn, py);
+					for(int px = firstColumn; px <= lastColumn; px++, index++){
+						if(accepted || (edge0 | edge1 | edge2) >= 0){
+							if(depthGenerations[index]!=generation || distanceArray[index]>pixelDistance){
+								distanceArray[index]=pixelDistance;
+								depthGenerations[index]=generation;
+								if(wireframe && (edge0 < wireframeThreshold0 || edge1 < wireframeThreshold1 || edge2 < wireframeThreshold2)){
+									dataElements[index]=black;
+								}
+								else if(pixelFog != null){
+									dataElements[index]=pixelFog.apply(packRGB(red, green, blue), pixelDistance);
+								}
+								else{
+									dataElements[index]=packRGB(red, green, blue);
+								}
+								written = true;
+							}
+						}
+						edge0 += stepX0;
+						edge1 += stepX1;
+						edge2 += stepX2;
+						pixelDistance += distanceX;
+						red += redX;
+						green += greenX;
+						blue += blueX;
+					}
+				}
+				if(written){
+					markBlocksDirty(firstColumn, lastColumn, firstRow);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return whether the pixel coordinates can be shifted to sub-pixel coordinates the half-space rasterizer can handle
+	 */
+	private static boolean isInHalfSpaceRange(int[] x, int[] y){
+		int max = MAX_HALF_SPACE_COORDINATE >> ProjectedTriads.SUBPIXEL_BITS;
+		for(int v=0; v<3; v++){
+			if(x[v] < -max || x[v] > max || y[v] < -max || y[v] > max){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isHalfSpaceCoordinate(int subpixel){
+		return subpixel >= -MAX_HALF_SPACE_COORDINATE && subpixel <= MAX_HALF_SPACE_COORDINATE;
+	}
+	
+	private static boolean isTopLeftEdge(long stepX, long stepY){
+		return stepX > 0 || stepX == 0 && stepY > 0;
+	}
+	
+	private static long getEdgeLength(long stepX, long stepY){
+		return (long)Math.sqrt((double)stepX * stepX + (double)stepY * stepY);
+	}
+	
+	/**
+	 * @return the largest value of an edge function within a block, given its value at the top left corner
+	 */
+	private static long getBlockMax(long corner, long stepX, long stepY, int lastStep){
+		return corner + Math.max(0, stepX * lastStep) + Math.max(0, stepY * lastStep);
+	}
+	
+	/**
+	 * @return the smallest value of an edge function within a block, given its value at the top left corner
+	 */
+	private static long getBlockMin(long corner, long stepX, long stepY, int lastStep){
+		return corner + Math.min(0, stepX * lastStep) + Math.min(0, stepY * lastStep);
+	}
+	
+	private static int packRGB(float red, float green, float blue){
+		int r = Math.max(0, Math.min(255, (int)(red + 0.5f)));
+		int g = Math.max(0, Math.min(255, (int)(green + 0.5f)));
+		int b = Math.max(0, Math.min(255, (int)(blue + 0.5f)));
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+
+	private void fillBottomFlatTriangle(int x1, int x2, int x3, int y1, int y2, int y3, int color1, int color2, int color3, int bgColor, float distance1, float distance2, float distance3, float maxDistance, boolean wireframe, int minRow, int maxRow, RasterScratch scratch){
 //		if(y1==y2 || y3 == y1){
 //		System.out.println("gleiche y werte: "+y1+" "+y2+" "+y3);
 //			return;
@@ -217,16 +773,23 @@ public class ZBuffer {
 		
 		float color1Slope = 0;
 		float color2Slope = 0;
+		boolean incremental = colorInterpolation == ColorInterpolation.FIXED_POINT_INCREMENTAL;
+		ColorGradient gradient1 = scratch.gradient1;
+		ColorGradient gradient2 = scratch.gradient2;
+		if(incremental){
+			gradient1.set(color1, color2, 0, ratio1);
+			gradient2.set(color1, color3, 0, ratio2);
+		}
 		
 		float curx1 = x1;
 		float curx2 = x1;
-		y2=Math.min(y2, height-1);
+		y2=Math.min(y2, maxRow);
 		float dist1 = distance1;
 		float dist2 = distance1;
 		for (int scanlineY = y1; scanlineY <= y2; scanlineY++){
-			if(scanlineY>=0){
-				int c1=ColorBlender.blendRGB(color1, color2, color1Slope);
-				int c2=ColorBlender.blendRGB(color1, color3, color2Slope);
+			if(scanlineY>=minRow){
+				int c1=incremental ? gradient1.get() : ColorBlender.blendRGB(color1, color2, color1Slope);
+				int c2=incremental ? gradient2.get() : ColorBlender.blendRGB(color1, color3, color2Slope);
 //				if(scanlineY ==y2){
 //					System.out.println("Scanline in bottom flat color2 (left): "+new Color(color2));
 //					System.out.println("Scanline in bottom flat color3 (right): "+new Color(color3));
@@ -235,7 +798,7 @@ public class ZBuffer {
 //					System.out.println("Scanline in bottom flat c1 input: "+new Color(color1)+" -> "+new Color(color2)+" with slope "+color1Slope);
 //					System.out.println("Scanline in bottom flat c2 input: "+new Color(color1)+" -> "+new Color(color3)+" with slope "+color2Slope);
 //				}
-				drawHorizontalLine((int)curx1, (int)curx2, scanlineY, c1, c2, bgColor, dist1, dist2, maxDistance, wireframe);
+				drawHorizontalLine((int)curx1, (int)curx2, scanlineY, c1, c2, bgColor, dist1, dist2, maxDistance, wireframe, minRow, maxRow);
 			}
 			curx1 += invslope1;
 			curx2 += invslope2;
@@ -243,9 +806,13 @@ public class ZBuffer {
 			dist2 += distSlope2; 
 			color1Slope += ratio1;
 			color2Slope += ratio2;
+			if(incremental){
+				gradient1.step();
+				gradient2.step();
+			}
 		}
 	 }
-	private void fillTopFlatTriangle(int x1, int x2, int x3, int y1, int y2, int y3, int color1, int color2, int color3, int bgColor, float distance1, float distance2, float distance3, float maxDistance, boolean wireframe){
+	private void fillTopFlatTriangle(int x1, int x2, int x3, int y1, int y2, int y3, int color1, int color2, int color3, int bgColor, float distance1, float distance2, float distance3, float maxDistance, boolean wireframe, int minRow, int maxRow, RasterScratch scratch){
 //		if(y3==y1 || y3 == y2){
 //			System.out.println("gleiche y werte: "+y1+" "+y2+" "+y3);
 //			return;
@@ -264,8 +831,15 @@ public class ZBuffer {
 		
 		float color1Slope = 1f;
 		float color2Slope = 1f;
+		boolean incremental = colorInterpolation == ColorInterpolation.FIXED_POINT_INCREMENTAL;
+		ColorGradient gradient1 = scratch.gradient1;
+		ColorGradient gradient2 = scratch.gradient2;
+		if(incremental){
+			gradient1.set(color1, color3, 1f, -ratio1);
+			gradient2.set(color2, color3, 1f, -ratio2);
+		}
 		
-		y1=Math.max(0, y1);
+		y1=Math.max(minRow, y1);
 		float dist1 = distance3;
 		float dist2 = distance3;
 //		y3=Math.min(y3, height-1);
@@ -276,10 +850,14 @@ public class ZBuffer {
 			dist2 -= distSlope2;
 			color1Slope -= ratio1;
 			color2Slope -= ratio2;
-			if(scanlineY>=height)
+			if(incremental){
+				gradient1.step();
+				gradient2.step();
+			}
+			if(scanlineY>maxRow)
 				continue;
-			int c1=ColorBlender.blendRGB(color1, color3, color1Slope);
-			int c2=ColorBlender.blendRGB(color2, color3, color2Slope);
+			int c1=incremental ? gradient1.get() : ColorBlender.blendRGB(color1, color3, color1Slope);
+			int c2=incremental ? gradient2.get() : ColorBlender.blendRGB(color2, color3, color2Slope);
 //			if(scanlineY ==y1){
 //				System.out.println("Scanline in top    flat color1 (color left): "+color1);
 //				System.out.println("Scanline in top    flat color2 (color right): "+color2);
@@ -288,21 +866,23 @@ public class ZBuffer {
 //				System.out.println("Scanline in top    flat c1 input: "+color1+" -> "+color3+" with slope "+color1Slope);
 //				System.out.println("Scanline in top    flat c2 input: "+color2+" -> "+color3+" with slope "+color2Slope);
 //			}
-			drawHorizontalLine((int)curx1, (int)curx2, scanlineY, c1, c2, bgColor, dist1, dist2, maxDistance, wireframe);
+			drawHorizontalLine((int)curx1, (int)curx2, scanlineY, c1, c2, bgColor, dist1, dist2, maxDistance, wireframe, minRow, maxRow);
 		}
 	}
 	
-	private void drawHorizontalLine(int x1, int x2, int y, int color1, int color2, int bgColor, float distance1, float distance2, float maxDistance, boolean wireframe) {
-		if(y<0)
+	private void drawHorizontalLine(int x1, int x2, int y, int color1, int color2, int bgColor, float distance1, float distance2, float maxDistance, boolean wireframe, int minRow, int maxRow) {
+		if(y<minRow)
 			return;
-		if(y>height-1)
+		if(y>maxRow)
 			return;
 		if(x1==x2 && x1>=0 && x1<width){
 			int index = getDataElementsIndex(x1, y);
-			if(distanceArray[index]<=distance1)
+			if(depthGenerations[index]==generation && distanceArray[index]<=distance1)
 				return;
 			distanceArray[index]=distance1;
-			dataElements[index]=color1; 
+			depthGenerations[index]=generation;
+			dataElements[index]=pixelFog == null ? color1 : pixelFog.apply(color1, distance1); 
+			markBlocksDirty(x1, x1, y);
 			return;
 		}
 		int xmin;
@@ -330,26 +910,17 @@ public class ZBuffer {
 			return;
 		}
 		
-		float xInv = 1f/(float)(xmax-xmin);
+		// a span clipped to a single pixel gets the values of its first pixel
+		float xInv = xmax > xmin ? 1f/(float)(xmax-xmin) : 0;
 		float distanceSlope = (dmax-dmin)*xInv;
-		float colorRatio = 0;
-		
-		float distance = dmin;
-		for(int x = xmin; x <= xmax; x++){
-			int index = getDataElementsIndex(x, y);
-//			if(index > dataElements.length-1)
-//				continue;
-			if(distanceArray[index]>distance){
-				distanceArray[index]=distance;
-				int color = black;
-				if(!wireframe || x > xmin && x < xmax){
-					color = ColorBlender.blendRGB(color1, color2, colorRatio);
-				}
-				dataElements[index]=color; 
-			}
-			distance+=distanceSlope;
-			colorRatio+=xInv;
+		if(colorInterpolation == ColorInterpolation.FIXED_POINT_INCREMENTAL){
+			spanFiller.fillSpanIncremental(dataElements, distanceArray, depthGenerations, generation, getDataElementsIndex(xmin, y), 0, xmax-xmin+1, 
+					dmin, distanceSlope, color1, color2, 0, xInv, wireframe, black, pixelFog);
+		} else {
+			spanFiller.fillSpan(dataElements, distanceArray, depthGenerations, generation, getDataElementsIndex(xmin, y), 0, xmax-xmin+1, 
+					dmin, distanceSlope, color1, color2, 0, xInv, wireframe, black, pixelFog);
 		}
+		markBlocksDirty(xmin, xmax, y);
 	}
 	
 	private int getDataElementsIndex(int x, int y){
@@ -360,9 +931,7 @@ public class ZBuffer {
 	}
 
 	public void setBackgroundColor(int backgroundColor) {
-		for(int i=0; i<dataElements.length; i++){
-			dataElements[i]=backgroundColor;
-		}
+		Arrays.fill(dataElements, 0, width * height, backgroundColor);
 	}
 	
 	
@@ -372,4 +941,59 @@ public class ZBuffer {
 		float ratio = (maxDistance-distance)/maxDistance;
 		return  ColorBlender.blendRGB(bgColor, originalColor, ratio);
 	}
+
+	private class TileRasterTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ProjectedTriads triads;
+		private final int tile;
+		private final int bgColor;
+		private final float maxDistance;
+		private final boolean fogEffect;
+		private final boolean wireframe;
+
+		public TileRasterTask(ProjectedTriads triads, int tile, int bgColor, float maxDistance, boolean fogEffect, boolean wireframe) {
+			this.triads = triads;
+			this.tile = tile;
+			this.bgColor = bgColor;
+			this.maxDistance = maxDistance;
+			this.fogEffect = fogEffect;
+			this.wireframe = wireframe;
+		}
+
+		@Override
+		protected void compute() {
+			int minRow = tile * TILE_HEIGHT;
+			int maxRow = Math.min(height-1, minRow + TILE_HEIGHT - 1);
+			fillTriads(triads, tileTriads[tile], tileTriadCounts[tile], bgColor, maxDistance, fogEffect, wireframe, minRow, maxRow, tileScratches[tile]);
+		}
+	}
+	
+	/**
+	 * Objects reused from triad to triad, so rasterizing does not allocate. Every thread rasterizing 
+	 * concurrently needs an instance of its own.
+	 */
+	private static final class RasterScratch {
+		private final ColorGradient gradient1 = new ColorGradient();
+		private final ColorGradient gradient2 = new ColorGradient();
+		private final int[] x = new int[3];
+		private final int[] y = new int[3];
+		private final int[] subpixelX = new int[3];
+		private final int[] subpixelY = new int[3];
+		private final int[] colors = new int[3];
+		private final float[] distances = new float[3];
+	}
+	
+	private static class TileRasterBatch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<TileRasterTask> tasks;
+
+		public TileRasterBatch(List<TileRasterTask> tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+	}
 }